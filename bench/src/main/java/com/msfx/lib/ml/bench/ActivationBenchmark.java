@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.bench;
+
+import com.msfx.lib.ml.function.Activation;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Activations and derivatives of the activation functions. The fork adds the vector module, so
+ * that the soft-max runs on the SIMD kernels when the platform supports them.
+ *
+ * @author Miquel Sas
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+public class ActivationBenchmark {
+
+	/** Activation name. */
+	@Param({ "BipolarSigmoid", "ReLU", "Sigmoid", "SoftMax", "TANH" })
+	private String name;
+	/** Size of the vectors. */
+	@Param({ "256" })
+	private int size;
+
+	/** Activation. */
+	private Activation activation;
+	/** Values, activations of random triggers. */
+	private double[] values;
+	/** Result buffer. */
+	private double[] result;
+
+	/**
+	 * Build the activation and the values.
+	 */
+	@Setup
+	public void setup() {
+		activation = Activation.get(name);
+		values = activation.activations(Benchmarks.random(new Random(1), size));
+		result = new double[size];
+	}
+
+	/**
+	 * Activations into the result buffer.
+	 * @return The result buffer.
+	 */
+	@Benchmark
+	public double[] activations() {
+		activation.activations(values, result);
+		return result;
+	}
+	/**
+	 * Derivatives into the result buffer.
+	 * @return The result buffer.
+	 */
+	@Benchmark
+	public double[] derivatives() {
+		activation.derivatives(values, result);
+		return result;
+	}
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.bench;
+
+import java.util.Random;
+
+/**
+ * Utilities shared by the benchmarks.
+ *
+ * @author Miquel Sas
+ */
+final class Benchmarks {
+
+	/**
+	 * Return a vector of random values between -1 and 1.
+	 * @param random The random generator.
+	 * @param size   The size.
+	 * @return The vector.
+	 */
+	static double[] random(Random random, int size) {
+		double[] values = new double[size];
+		for (int i = 0; i < size; i++) {
+			values[i] = random.nextDouble() * 2 - 1;
+		}
+		return values;
+	}
+
+	/**
+	 * Private constructor.
+	 */
+	private Benchmarks() { }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.bench;
+
+import com.msfx.lib.ml.kernel.Kernels;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Numeric kernels of the weights nodes, scalar and SIMD. The fork adds the vector module, so that
+ * the default kernels are the SIMD ones when the platform supports them.
+ *
+ * @author Miquel Sas
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+public class KernelBenchmark {
+
+	/** Kernels, scalar or vector. */
+	@Param({ "scalar", "vector" })
+	private String kernels;
+	/** Size of the ranges. */
+	@Param({ "256", "1024" })
+	private int size;
+
+	/** The kernels. */
+	private Kernels k;
+	/** Arrays. */
+	private double[] x, y, z, w;
+
+	/**
+	 * Select the kernels and build the arrays.
+	 */
+	@Setup
+	public void setup() {
+		if (kernels.equals("scalar")) {
+			k = Kernels.scalar();
+		} else {
+			k = Kernels.get();
+			if (k == Kernels.scalar()) throw new IllegalStateException("Vector kernels not available");
+		}
+		Random random = new Random(1);
+		x = Benchmarks.random(random, size);
+		y = Benchmarks.random(random, size);
+		z = Benchmarks.random(random, size);
+		w = Benchmarks.random(random, size);
+	}
+
+	/**
+	 * Dot product.
+	 * @return The dot product.
+	 */
+	@Benchmark
+	public double dot() { return k.dot(x, 0, y, 0, size); }
+	/**
+	 * Scaled addition, <i>y += a * x</i>.
+	 * @return The updated array.
+	 */
+	@Benchmark
+	public double[] axpy() {
+		k.axpy(1.0e-9, x, 0, y, 0, size);
+		return y;
+	}
+	/**
+	 * Momentum update of a range with accumulated gradients.
+	 * @return The updated weights.
+	 */
+	@Benchmark
+	public double[] momentum() {
+		k.momentum(y, z, w, 1.0e-9, 0.5, 1.0e-9, 0, size);
+		return y;
+	}
+}
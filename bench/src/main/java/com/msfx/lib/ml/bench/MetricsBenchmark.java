@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.bench;
+
+import com.msfx.lib.ml.training.SLMetrics;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Computation of the supervised learning metrics of a pattern.
+ *
+ * @author Miquel Sas
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+	/** Size of the output. */
+	@Param({ "16" })
+	private int size;
+
+	/** Metrics. */
+	private SLMetrics metrics;
+	/** Pattern output values. */
+	private List<double[]> patternOutput;
+	/** Network output values. */
+	private List<double[]> networkOutput;
+
+	/**
+	 * Build the metrics and the outputs.
+	 */
+	@Setup
+	public void setup() {
+		Random random = new Random(1);
+		metrics = new SLMetrics(size);
+		patternOutput = List.of(Benchmarks.random(random, size));
+		networkOutput = List.of(Benchmarks.random(random, size));
+	}
+	/**
+	 * Reset the metrics before each iteration.
+	 */
+	@Setup(Level.Iteration)
+	public void reset() { metrics.reset(); }
+
+	/**
+	 * Compute the metrics of a pattern.
+	 * @return The metrics.
+	 */
+	@Benchmark
+	public SLMetrics compute() {
+		metrics.compute(patternOutput, networkOutput);
+		return metrics;
+	}
+}
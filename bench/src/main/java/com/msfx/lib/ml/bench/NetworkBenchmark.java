@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.bench;
+
+import com.msfx.lib.ml.function.Activation;
+import com.msfx.lib.ml.graph.Cell;
+import com.msfx.lib.ml.graph.Graph;
+import com.msfx.lib.ml.graph.Network;
+import com.msfx.lib.ml.graph.Precision;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Forward and forward-backward passes of a network of two recurrent cells with bias, serial and
+ * parallel, and the forward pass with float precision.
+ *
+ * @author Miquel Sas
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class NetworkBenchmark {
+
+	/** Cell size. */
+	@Param({ "32", "128", "512" })
+	private int size;
+	/** Parallel processing flag. */
+	@Param({ "false", "true" })
+	private boolean parallel;
+
+	/** Network with double precision. */
+	private Network network;
+	/** Network with float precision, forward only. */
+	private Network networkFloat;
+	/** Input values. */
+	private List<double[]> inputs;
+	/** Output deltas. */
+	private List<double[]> deltas;
+
+	/**
+	 * Build the networks and the input values and deltas.
+	 */
+	@Setup
+	public void setup() {
+		Random random = new Random(1);
+		network = network(Precision.DOUBLE);
+		networkFloat = network(Precision.FLOAT);
+		inputs = List.of(Benchmarks.random(random, size));
+		double[] delta = Benchmarks.random(random, size);
+		for (int i = 0; i < delta.length; i++) {
+			delta[i] *= 1.0e-6;
+		}
+		deltas = List.of(delta);
+	}
+	/**
+	 * Release the pools of the networks.
+	 */
+	@TearDown
+	public void teardown() {
+		network.terminate();
+		networkFloat.terminate();
+	}
+
+	/**
+	 * Return an initialized network with the given precision.
+	 * @param precision The precision.
+	 * @return The network.
+	 */
+	private Network network(Precision precision) {
+		Cell cell1 = Graph.rnn(size, size, Activation.TANH, true, true);
+		Cell cell2 = Graph.rnn(size, size, Activation.SIGMOID, true, true);
+		Graph.connect(cell1, cell2);
+		Network network = new Network();
+		network.add(cell1, cell2);
+		network.setParallelProcessing(parallel);
+		network.initialize();
+		network.setPrecision(precision);
+		return network;
+	}
+
+	/**
+	 * Forward pass.
+	 * @return An output value.
+	 */
+	@Benchmark
+	public double forward() {
+		network.forward(inputs);
+		double value = network.getOutputValues().get(0)[0];
+		network.unfold();
+		return value;
+	}
+	/**
+	 * Forward and backward pass, including the update of the parameters.
+	 * @return An output value.
+	 */
+	@Benchmark
+	public double forwardBackward() {
+		network.forward(inputs);
+		double value = network.getOutputValues().get(0)[0];
+		network.backward(deltas);
+		return value;
+	}
+	/**
+	 * Forward pass with float precision.
+	 * @return An output value.
+	 */
+	@Benchmark
+	public double forwardFloat() {
+		networkFloat.forward(inputs);
+		double value = networkFloat.getOutputValues().get(0)[0];
+		networkFloat.unfold();
+		return value;
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.bench;
+
+import com.msfx.lib.util.Vector;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Operations of the vector utilities.
+ *
+ * @author Miquel Sas
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class VectorBenchmark {
+
+	/** Size of the vectors. */
+	@Param({ "1024" })
+	private int size;
+
+	/** Vectors. */
+	private double[] x, y;
+
+	/**
+	 * Build the vectors.
+	 */
+	@Setup
+	public void setup() {
+		Random random = new Random(1);
+		x = Benchmarks.random(random, size);
+		y = Benchmarks.random(random, size);
+	}
+
+	/**
+	 * Addition.
+	 * @return The sum.
+	 */
+	@Benchmark
+	public double[] add() { return Vector.add(x, y); }
+	/**
+	 * Subtraction.
+	 * @return The difference.
+	 */
+	@Benchmark
+	public double[] subtract() { return Vector.subtract(x, y); }
+	/**
+	 * Euclidean distance.
+	 * @return The distance.
+	 */
+	@Benchmark
+	public double distanceEuclidean() { return Vector.distanceEuclidean(x, y); }
+	/**
+	 * Cosine similarity.
+	 * @return The similarity.
+	 */
+	@Benchmark
+	public double similarityCosine() { return Vector.similarityCosine(x, y); }
+	/**
+	 * Standard deviation.
+	 * @return The standard deviation.
+	 */
+	@Benchmark
+	public double stddev() { return Vector.stddev(x); }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.kernel;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * SIMD kernels built on the incubating vector API, using the preferred species of the platform
+ * (four lanes with AVX2, eight with AVX-512) and a scalar loop for the tail. Multiply and add are
+ * not fused, since fused multiply-add is very slow on platforms without hardware support.
+ * <p>
+ * Compiled separately from the rest of the library, with <i>--add-modules jdk.incubator.vector</i>,
+ * and only loaded by <i>Kernels</i> when the <i>jdk.incubator.vector</i> module is present.
+ *
+ * @author Miquel Sas
+ */
+public class VectorKernels extends Kernels {
+
+	/** Preferred species. */
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	/** Float species with the same number of lanes, to convert to the preferred species. */
+	private static final VectorSpecies<Float> FLOAT_SPECIES =
+		VectorSpecies.of(float.class, VectorShape.forBitSize(SPECIES.vectorBitSize() / 2));
+
+	/**
+	 * Constructor.
+	 */
+	public VectorKernels() { }
+
+	@Override
+	public String getName() { return "vector-" + SPECIES.length(); }
+
+	@Override
+	public void axpy(double a, double[] x, int xOffset, double[] y, int yOffset, int length) {
+		int i = 0;
+		int bound = SPECIES.loopBound(length);
+		for (; i < bound; i += SPECIES.length()) {
+			DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+			DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+			vy.add(vx.mul(a)).intoArray(y, yOffset + i);
+		}
+		for (; i < length; i++) {
+			y[yOffset + i] += (a * x[xOffset + i]);
+		}
+	}
+
+	@Override
+	public void axpy(double a, float[] x, int xOffset, double[] y, int yOffset, int length) {
+		int i = 0;
+		int bound = SPECIES.loopBound(length);
+		for (; i < bound; i += SPECIES.length()) {
+			FloatVector fx = FloatVector.fromArray(FLOAT_SPECIES, x, xOffset + i);
+			DoubleVector vx = (DoubleVector) fx.convertShape(VectorOperators.F2D, SPECIES, 0);
+			DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+			vy.add(vx.mul(a)).intoArray(y, yOffset + i);
+		}
+		for (; i < length; i++) {
+			y[yOffset + i] += (a * x[xOffset + i]);
+		}
+	}
+
+	@Override
+	public void axpy(double a, ByteBuffer x, int xOffset, double[] y, int yOffset, int length) {
+		int i = 0;
+		int bound = SPECIES.loopBound(length);
+		for (; i < bound; i += SPECIES.length()) {
+			int position = (xOffset + i) * Double.BYTES;
+			DoubleVector vx = DoubleVector.fromByteBuffer(SPECIES, x, position, ByteOrder.LITTLE_ENDIAN);
+			DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+			vy.add(vx.mul(a)).intoArray(y, yOffset + i);
+		}
+		ByteBuffer buffer = (x.order() == ByteOrder.LITTLE_ENDIAN ? x : x.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+		for (; i < length; i++) {
+			y[yOffset + i] += (a * buffer.getDouble((xOffset + i) * Double.BYTES));
+		}
+	}
+
+	@Override
+	public double dot(double[] x, int xOffset, double[] y, int yOffset, int length) {
+		int i = 0;
+		int bound = SPECIES.loopBound(length);
+		DoubleVector sum = DoubleVector.zero(SPECIES);
+		for (; i < bound; i += SPECIES.length()) {
+			DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+			DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+			sum = sum.add(vx.mul(vy));
+		}
+		double result = sum.reduceLanes(VectorOperators.ADD);
+		for (; i < length; i++) {
+			result += (x[xOffset + i] * y[yOffset + i]);
+		}
+		return result;
+	}
+
+	@Override
+	public void softMax(double[] x, double[] y, int offset, int length) {
+		double max = max(x, offset, length);
+		int i = 0;
+		int bound = SPECIES.loopBound(length);
+		DoubleVector vsum = DoubleVector.zero(SPECIES);
+		for (; i < bound; i += SPECIES.length()) {
+			DoubleVector vx = DoubleVector.fromArray(SPECIES, x, offset + i);
+			DoubleVector ve = vx.sub(max).lanewise(VectorOperators.EXP);
+			ve.intoArray(y, offset + i);
+			vsum = vsum.add(ve);
+		}
+		double sum = vsum.reduceLanes(VectorOperators.ADD);
+		for (; i < length; i++) {
+			double e = Math.exp(x[offset + i] - max);
+			y[offset + i] = e;
+			sum += e;
+		}
+		double div = 1.0 / sum;
+		i = 0;
+		for (; i < bound; i += SPECIES.length()) {
+			DoubleVector.fromArray(SPECIES, y, offset + i).mul(div).intoArray(y, offset + i);
+		}
+		for (; i < length; i++) {
+			y[offset + i] *= div;
+		}
+	}
+
+	@Override
+	public double logSumExp(double[] x, int offset, int length) {
+		double max = max(x, offset, length);
+		int i = 0;
+		int bound = SPECIES.loopBound(length);
+		DoubleVector vsum = DoubleVector.zero(SPECIES);
+		for (; i < bound; i += SPECIES.length()) {
+			DoubleVector vx = DoubleVector.fromArray(SPECIES, x, offset + i);
+			vsum = vsum.add(vx.sub(max).lanewise(VectorOperators.EXP));
+		}
+		double sum = vsum.reduceLanes(VectorOperators.ADD);
+		for (; i < length; i++) {
+			sum += Math.exp(x[offset + i] - max);
+		}
+		return max + Math.log(sum);
+	}
+
+	/**
+	 * Return the maximum of a range of x.
+	 *
+	 * @param x      The x array.
+	 * @param offset The offset of the range.
+	 * @param length The length of the range.
+	 * @return The maximum.
+	 */
+	private static double max(double[] x, int offset, int length) {
+		int i = 0;
+		int bound = SPECIES.loopBound(length);
+		DoubleVector vmax = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+		for (; i < bound; i += SPECIES.length()) {
+			vmax = vmax.max(DoubleVector.fromArray(SPECIES, x, offset + i));
+		}
+		double max = vmax.reduceLanes(VectorOperators.MAX);
+		for (; i < length; i++) {
+			if (x[offset + i] > max) max = x[offset + i];
+		}
+		return max;
+	}
+
+	@Override
+	public void momentum(
+		double[] weights,
+		double[] velocity,
+		double[] gradients,
+		double scale,
+		double momentum,
+		double learningRate,
+		int offset,
+		int length) {
+		double factor = 1 - momentum;
+		int i = 0;
+		int bound = SPECIES.loopBound(length);
+		for (; i < bound; i += SPECIES.length()) {
+			int index = offset + i;
+			DoubleVector vv = DoubleVector.fromArray(SPECIES, velocity, index);
+			DoubleVector vg = DoubleVector.fromArray(SPECIES, gradients, index);
+			vv = vv.mul(momentum).add(vg.mul(scale).mul(factor));
+			vv.intoArray(velocity, index);
+			DoubleVector vw = DoubleVector.fromArray(SPECIES, weights, index);
+			vw.add(vv.mul(learningRate)).intoArray(weights, index);
+		}
+		for (; i < length; i++) {
+			int index = offset + i;
+			double v = (momentum * velocity[index]) + factor * (gradients[index] * scale);
+			velocity[index] = v;
+			weights[index] += learningRate * v;
+		}
+	}
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A pattern source backed by a memory-mapped binary file, for data sets that do not fit in the
+ * heap.
+ * <p>
+ * The file has a header with the number of patterns and the sizes of the input and output
+ * vectors, followed by fixed size records with the input and output values of each pattern as
+ * little-endian doubles. Files are written with <i>write()</i> from any pattern source.
+ * <p>
+ * Patterns returned by <i>next()</i> and <i>get()</i> are flyweight views: the same pattern
+ * instance and vectors are reused and overwritten by the next call, so callers must consume or copy
+ * the values before requesting the next pattern.
+ *
+ * @author Miquel Sas
+ */
+public class FilePatternSource extends PatternSource {
+
+	/** Magic number that identifies the file format. */
+	private static final int MAGIC = 0x4D534650;
+	/** Format version. */
+	private static final int VERSION = 1;
+
+	/**
+	 * Write the patterns of a source to a file in the binary format of this source. Labels are not
+	 * written.
+	 *
+	 * @param source      The source of patterns, that is reset before writing.
+	 * @param inputSizes  The list of input sizes, normally the network input sizes.
+	 * @param outputSizes The list of output sizes, normally the network output sizes.
+	 * @param file        The destination file.
+	 * @throws IOException If such an error occurs.
+	 */
+	public static void write(
+			PatternSource source,
+			List<Integer> inputSizes,
+			List<Integer> outputSizes,
+			File file) throws IOException {
+
+		ByteBuffer header = getHeader(0, inputSizes, outputSizes);
+		int recordDoubles = getRecordDoubles(inputSizes, outputSizes);
+		int bufferRecords = Math.max(1, (1 << 20) / (recordDoubles * Double.BYTES));
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bufferRecords * recordDoubles * Double.BYTES);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		DoubleBuffer doubles = buffer.asDoubleBuffer();
+
+		try (FileChannel channel = FileChannel.open(
+				file.toPath(),
+				StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+
+			/* Header with a zero count, rewritten at the end. */
+			while (header.hasRemaining()) channel.write(header);
+
+			/* Records. */
+			long count = 0;
+			source.reset();
+			while (source.hasNext()) {
+				Pattern pattern = source.next();
+				put(doubles, pattern.getInputValues(), inputSizes);
+				put(doubles, pattern.getOutputValues(), outputSizes);
+				count++;
+				if (!doubles.hasRemaining()) {
+					flush(channel, buffer, doubles);
+				}
+			}
+			flush(channel, buffer, doubles);
+
+			/* Rewrite the header with the final count. */
+			header = getHeader(count, inputSizes, outputSizes);
+			long position = 0;
+			while (header.hasRemaining()) position += channel.write(header, position);
+		}
+	}
+	/**
+	 * Put a list of vectors in the buffer, validating their sizes.
+	 *
+	 * @param doubles The buffer.
+	 * @param values  The list of vectors.
+	 * @param sizes   The list of sizes.
+	 */
+	private static void put(DoubleBuffer doubles, List<double[]> values, List<Integer> sizes) {
+		if (values.size() != sizes.size()) throw new IllegalArgumentException("Sizes do not match.");
+		for (int i = 0; i < sizes.size(); i++) {
+			double[] vector = values.get(i);
+			if (vector.length != sizes.get(i)) throw new IllegalArgumentException("Invalid vector size");
+			doubles.put(vector);
+		}
+	}
+	/**
+	 * Write the doubles put in the buffer to the channel and clear it.
+	 *
+	 * @param channel The channel.
+	 * @param buffer  The byte buffer.
+	 * @param doubles The double view of the byte buffer.
+	 * @throws IOException If such an error occurs.
+	 */
+	private static void flush(FileChannel channel, ByteBuffer buffer, DoubleBuffer doubles) throws IOException {
+		buffer.position(0);
+		buffer.limit(doubles.position() * Double.BYTES);
+		while (buffer.hasRemaining()) channel.write(buffer);
+		buffer.clear();
+		doubles.clear();
+	}
+	/**
+	 * Return the header, padded to a multiple of the size of a double.
+	 *
+	 * @param count       The number of patterns.
+	 * @param inputSizes  The list of input sizes.
+	 * @param outputSizes The list of output sizes.
+	 * @return The header buffer ready to be written.
+	 */
+	private static ByteBuffer getHeader(long count, List<Integer> inputSizes, List<Integer> outputSizes) {
+		int length = Integer.BYTES * (4 + inputSizes.size() + outputSizes.size()) + Long.BYTES;
+		length = ((length + Double.BYTES - 1) / Double.BYTES) * Double.BYTES;
+		ByteBuffer header = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putLong(count);
+		header.putInt(inputSizes.size());
+		for (int size : inputSizes) header.putInt(size);
+		header.putInt(outputSizes.size());
+		for (int size : outputSizes) header.putInt(size);
+		header.position(0);
+		return header;
+	}
+	/**
+	 * Return the number of doubles of a record.
+	 *
+	 * @param inputSizes  The list of input sizes.
+	 * @param outputSizes The list of output sizes.
+	 * @return The number of doubles.
+	 */
+	private static int getRecordDoubles(List<Integer> inputSizes, List<Integer> outputSizes) {
+		int doubles = 0;
+		for (int size : inputSizes) doubles += size;
+		for (int size : outputSizes) doubles += size;
+		if (doubles <= 0) throw new IllegalArgumentException("Empty record");
+		return doubles;
+	}
+
+	/**
+	 * Flyweight pattern whose vectors are overwritten on each read.
+	 */
+	private static class FilePattern extends Pattern {
+		/** The source that allocated the vectors. */
+		private final FilePatternSource source;
+		/** Input vectors. */
+		private final List<double[]> inputValues = new ArrayList<>();
+		/** Output vectors. */
+		private final List<double[]> outputValues = new ArrayList<>();
+		/**
+		 * Constructor allocating the vectors with the sizes of the source.
+		 *
+		 * @param source The source.
+		 */
+		private FilePattern(FilePatternSource source) {
+			this.source = source;
+			for (int size : source.inputSizes) inputValues.add(new double[size]);
+			for (int size : source.outputSizes) outputValues.add(new double[size]);
+		}
+		@Override
+		public List<double[]> getInputValues() { return inputValues; }
+		@Override
+		public List<double[]> getOutputValues() { return outputValues; }
+	}
+
+	/** Number of patterns. */
+	private final int size;
+	/** Number of doubles of a record. */
+	private final int recordDoubles;
+	/** Number of records per mapped chunk. */
+	private final int chunkRecords;
+	/** Mapped chunks of records, as double buffers. */
+	private final List<DoubleBuffer> chunks = new ArrayList<>();
+	/** Input sizes. */
+	private final List<Integer> inputSizes = new ArrayList<>();
+	/** Output sizes. */
+	private final List<Integer> outputSizes = new ArrayList<>();
+
+	/** The flyweight pattern of <i>get(int)</i> and <i>next()</i>. */
+	private final FilePattern pattern;
+	/** Index of the next pattern. */
+	private int index = 0;
+
+	/**
+	 * Constructor mapping the file.
+	 *
+	 * @param file The file written with <i>write()</i>.
+	 * @throws IOException If such an error occurs.
+	 */
+	public FilePatternSource(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+			/* Read the header. */
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), 1 << 16));
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.getInt() != MAGIC) throw new IOException("Invalid pattern file " + file);
+			if (buffer.getInt() != VERSION) throw new IOException("Unsupported pattern file version " + file);
+			long count = buffer.getLong();
+			if (count > Integer.MAX_VALUE) throw new IOException("Too many patterns " + count);
+			int inputs = buffer.getInt();
+			for (int i = 0; i < inputs; i++) inputSizes.add(buffer.getInt());
+			int outputs = buffer.getInt();
+			for (int i = 0; i < outputs; i++) outputSizes.add(buffer.getInt());
+			size = (int) count;
+			recordDoubles = getRecordDoubles(inputSizes, outputSizes);
+			long position = getHeader(0, inputSizes, outputSizes).limit();
+
+			/* Map the records in chunks of whole records. */
+			long recordBytes = (long) recordDoubles * Double.BYTES;
+			chunkRecords = (int) Math.max(1, Integer.MAX_VALUE / recordBytes);
+			long remaining = count;
+			while (remaining > 0) {
+				long records = Math.min(remaining, chunkRecords);
+				ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, records * recordBytes);
+				chunks.add(chunk.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer());
+				position += records * recordBytes;
+				remaining -= records;
+			}
+		}
+
+		pattern = new FilePattern(this);
+	}
+
+	/**
+	 * Return the pattern at the given index, reading its values into the flyweight pattern.
+	 *
+	 * @param index The index of the pattern.
+	 * @return The flyweight pattern.
+	 */
+	@Override
+	public Pattern get(int index) { return get(index, pattern); }
+	/**
+	 * Return the pattern at the given index, reading its values into the given flyweight pattern,
+	 * or into a new one if it is null or was not returned by this source. Reads only use absolute
+	 * positions of the read-only mapped buffers, thus readers that own their flyweight can call this
+	 * method concurrently.
+	 *
+	 * @param index   The index of the pattern.
+	 * @param pattern The flyweight pattern to reuse, or null.
+	 * @return The flyweight pattern.
+	 */
+	@Override
+	public Pattern get(int index, Pattern pattern) {
+		if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+		FilePattern flyweight;
+		if (pattern instanceof FilePattern && ((FilePattern) pattern).source == this) {
+			flyweight = (FilePattern) pattern;
+		} else {
+			flyweight = new FilePattern(this);
+		}
+		DoubleBuffer chunk = chunks.get(index / chunkRecords);
+		int position = (index % chunkRecords) * recordDoubles;
+		for (double[] values : flyweight.inputValues) {
+			chunk.get(position, values);
+			position += values.length;
+		}
+		for (double[] values : flyweight.outputValues) {
+			chunk.get(position, values);
+			position += values.length;
+		}
+		return flyweight;
+	}
+	/**
+	 * Return the list of input sizes.
+	 *
+	 * @return The list of input sizes.
+	 */
+	public List<Integer> getInputSizes() { return Collections.unmodifiableList(inputSizes); }
+	/**
+	 * Return the list of output sizes.
+	 *
+	 * @return The list of output sizes.
+	 */
+	public List<Integer> getOutputSizes() { return Collections.unmodifiableList(outputSizes); }
+
+	/**
+	 * Returns true it the source has more patterns.
+	 *
+	 * @return A boolean.
+	 */
+	@Override
+	public boolean hasNext() { return index < size; }
+	/**
+	 * Check whether the source supports random access, always true.
+	 *
+	 * @return A boolean.
+	 */
+	@Override
+	public boolean isRandomAccess() { return true; }
+	/**
+	 * Returns the next pattern, a flyweight view overwritten by the next call.
+	 *
+	 * @return The next pattern.
+	 */
+	@Override
+	public Pattern next() { return get(index++); }
+	/**
+	 * Reset the source and point to the first pattern.
+	 */
+	@Override
+	public void reset() { index = 0; }
+	/**
+	 * Return the size of the source.
+	 *
+	 * @return The size.
+	 */
+	@Override
+	public int size() { return size; }
+}
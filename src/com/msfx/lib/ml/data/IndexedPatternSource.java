@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.data;
+
+import com.msfx.lib.util.Vector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * A view over a random access pattern source, defined by an array of indexes into that source. Views
+ * can shuffle their order on each reset, be split into train and test views or sharded for parallel
+ * workers, and only hold indexes, never copies of the pattern values.
+ * <p>
+ * Each view reads the underlying source into its own flyweight pattern, through
+ * <i>get(int, Pattern)</i>, so that different views of the same source can be iterated
+ * concurrently, for instance the train and test views of a split. A single view is not thread
+ * safe, and the pattern it returns is overwritten by its next read when the source returns
+ * flyweight patterns.
+ *
+ * @author Miquel Sas
+ */
+public class IndexedPatternSource extends PatternSource {
+
+	/** The underlying random access source. */
+	private final PatternSource source;
+	/** Indexes into the underlying source, in the order of the view. */
+	private final int[] order;
+	/** Indexes in the current order, shuffled on reset if enabled. */
+	private final int[] indexes;
+	/** Position of the next pattern. */
+	private int position = 0;
+	/** The flyweight pattern of the view, if the source returns flyweight patterns. */
+	private Pattern pattern;
+
+	/** Shuffle flag. */
+	private boolean shuffle = false;
+	/** Shuffle seed. */
+	private long seed;
+	/** Epoch, incremented on each shuffled reset. */
+	private long epoch;
+
+	/**
+	 * Constructor of a view over all the patterns of the source.
+	 *
+	 * @param source The random access source.
+	 */
+	public IndexedPatternSource(PatternSource source) {
+		this(source, identity(source.size()));
+	}
+	/**
+	 * Constructor of a view over the given indexes of the source.
+	 *
+	 * @param source  The random access source.
+	 * @param indexes The indexes into the source.
+	 */
+	public IndexedPatternSource(PatternSource source, int[] indexes) {
+		if (!source.isRandomAccess()) throw new IllegalArgumentException("Source is not random access");
+		int[] order = indexes.clone();
+		int size = source.size();
+		for (int index : order) {
+			if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+		}
+		this.source = source;
+		this.order = order;
+		this.indexes = order.clone();
+	}
+
+	/**
+	 * Return an array with the identity permutation.
+	 *
+	 * @param size The size.
+	 * @return The array of indexes.
+	 */
+	private static int[] identity(int size) {
+		int[] indexes = new int[size];
+		for (int i = 0; i < size; i++) {
+			indexes[i] = i;
+		}
+		return indexes;
+	}
+
+	/**
+	 * Enable shuffling. The order is shuffled now and on every reset, with a permutation that
+	 * depends only on the seed and the epoch, so that runs are reproducible.
+	 *
+	 * @param seed The seed.
+	 */
+	public void setShuffle(long seed) {
+		this.shuffle = true;
+		this.seed = seed;
+		this.epoch = 0;
+		reset();
+	}
+
+	/**
+	 * Split the view into two views, the first with the given fraction of the patterns and the
+	 * second with the rest, after a seeded shuffle.
+	 *
+	 * @param fraction The fraction of patterns of the first view, normally the train view.
+	 * @param seed     The seed of the shuffle.
+	 * @return The list with the two views.
+	 */
+	public List<IndexedPatternSource> split(double fraction, long seed) {
+		if (fraction < 0 || fraction > 1) throw new IllegalArgumentException("Invalid fraction " + fraction);
+		int[] permutation = order.clone();
+		Vector.shuffle(permutation, new Random(seed));
+		int size = (int) Math.round(permutation.length * fraction);
+		List<IndexedPatternSource> views = new ArrayList<>();
+		views.add(new IndexedPatternSource(source, Arrays.copyOfRange(permutation, 0, size)));
+		views.add(new IndexedPatternSource(source, Arrays.copyOfRange(permutation, size, permutation.length)));
+		return views;
+	}
+	/**
+	 * Split the view in its original order into contiguous shards of sizes that differ at most by
+	 * one.
+	 *
+	 * @param count The number of shards.
+	 * @return The list of shards.
+	 */
+	public List<IndexedPatternSource> shards(int count) {
+		if (count < 1) throw new IllegalArgumentException("Invalid number of shards " + count);
+		List<IndexedPatternSource> views = new ArrayList<>();
+		int start = 0;
+		for (int i = 0; i < count; i++) {
+			int end = start + order.length / count + (i < order.length % count ? 1 : 0);
+			views.add(new IndexedPatternSource(source, Arrays.copyOfRange(order, start, end)));
+			start = end;
+		}
+		return views;
+	}
+
+	/**
+	 * Returns the pattern at the given index of the view, read into the flyweight of the view.
+	 *
+	 * @param index The index in the view.
+	 * @return The pattern.
+	 */
+	@Override
+	public Pattern get(int index) { return pattern = source.get(indexes[index], pattern); }
+	/**
+	 * Returns true it the source has more patterns.
+	 *
+	 * @return A boolean.
+	 */
+	@Override
+	public boolean hasNext() { return position < indexes.length; }
+	/**
+	 * Check whether the source supports random access, always true.
+	 *
+	 * @return A boolean.
+	 */
+	@Override
+	public boolean isRandomAccess() { return true; }
+	/**
+	 * Returns the next pattern.
+	 *
+	 * @return The next pattern.
+	 */
+	@Override
+	public Pattern next() {
+		if (!hasNext()) throw new NoSuchElementException();
+		return get(position++);
+	}
+	/**
+	 * Reset the source and point to the first pattern, shuffling the order if enabled.
+	 */
+	@Override
+	public void reset() {
+		if (shuffle) {
+			System.arraycopy(order, 0, indexes, 0, order.length);
+			Vector.shuffle(indexes, new Random(seed + epoch++));
+		}
+		position = 0;
+	}
+	/**
+	 * Return the size of the view.
+	 *
+	 * @return The size.
+	 */
+	@Override
+	public int size() { return indexes.length; }
+}
@@ -44,12 +44,25 @@ public class ListPatternSource extends PatternSource {
 	 * @param pattern A pattern.
 	 */
 	public void add(Pattern pattern) { patterns.add(pattern); iterator = null; }
+	/**
+	 * Returns the pattern at the given index.
+	 * @param index The index of the pattern.
+	 * @return The pattern.
+	 */
+	@Override
+	public Pattern get(int index) { return patterns.get(index); }
 	/**
 	 * Returns true it the source has more patterns.
 	 * @return A boolean.
 	 */
 	@Override
 	public boolean hasNext() { return iterator.hasNext(); }
+	/**
+	 * Check whether the source supports random access, always true.
+	 * @return A boolean.
+	 */
+	@Override
+	public boolean isRandomAccess() { return true; }
 	/**
 	 * Returns the next pattern or null.
 	 * @return The next pattern or null.
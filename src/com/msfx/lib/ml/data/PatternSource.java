@@ -29,6 +29,27 @@ public abstract class PatternSource implements Iterator<Pattern> {
 	 * @return A boolean.
 	 */
 	public abstract boolean hasNext();
+	/**
+	 * Returns the pattern at the given index, if the source supports random access.
+	 * @param index The index of the pattern.
+	 * @return The pattern.
+	 */
+	public Pattern get(int index) { throw new UnsupportedOperationException("Not a random access source"); }
+	/**
+	 * Returns the pattern at the given index, reading it into the given pattern when the source
+	 * returns flyweight patterns, so that each reader can own its flyweight. The given pattern is
+	 * null or one returned by a previous call to this method of the same source. By default the
+	 * given pattern is ignored and the result is the one of <i>get(int)</i>.
+	 * @param index   The index of the pattern.
+	 * @param pattern The pattern to reuse, or null.
+	 * @return The pattern.
+	 */
+	public Pattern get(int index, Pattern pattern) { return get(index); }
+	/**
+	 * Check whether the source supports random access through <i>get(int)</i>.
+	 * @return A boolean.
+	 */
+	public boolean isRandomAccess() { return false; }
 	/**
 	 * Returns the next pattern or null.
 	 * @return The next pattern or null.
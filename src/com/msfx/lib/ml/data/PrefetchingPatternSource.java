@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A pattern source that wraps another source and reads its patterns ahead on a background thread,
+ * keeping a bounded queue of upcoming patterns filled while the consumer processes the current one.
+ * <p>
+ * Patterns are copied into a fixed set of recycled slots, so wrapped sources that return flyweight
+ * patterns are safe. The pattern returned by <i>next()</i> is valid until the following call to
+ * <i>next()</i>, and must be copied if it has to be retained.
+ *
+ * @author Miquel Sas
+ */
+public class PrefetchingPatternSource extends PatternSource {
+
+	/**
+	 * A recycled pattern slot, with vectors reused while their sizes do not change.
+	 */
+	private static class Slot extends Pattern {
+		/** Input vectors. */
+		private final List<double[]> inputValues = new ArrayList<>();
+		/** Output vectors. */
+		private final List<double[]> outputValues = new ArrayList<>();
+		@Override
+		public List<double[]> getInputValues() { return inputValues; }
+		@Override
+		public List<double[]> getOutputValues() { return outputValues; }
+		/**
+		 * Copy the values and the label of a pattern.
+		 * @param pattern The pattern to copy.
+		 */
+		private void copy(Pattern pattern) {
+			copy(pattern.getInputValues(), inputValues);
+			copy(pattern.getOutputValues(), outputValues);
+			setLabel(pattern.getLabel());
+		}
+		/**
+		 * Copy a list of vectors, reusing the destination vectors when possible.
+		 * @param src The source list.
+		 * @param dst The destination list.
+		 */
+		private static void copy(List<double[]> src, List<double[]> dst) {
+			if (src == null) {
+				dst.clear();
+				return;
+			}
+			while (dst.size() > src.size()) dst.remove(dst.size() - 1);
+			for (int i = 0; i < src.size(); i++) {
+				double[] values = src.get(i);
+				if (i == dst.size()) {
+					dst.add(new double[values.length]);
+				} else if (dst.get(i).length != values.length) {
+					dst.set(i, new double[values.length]);
+				}
+				System.arraycopy(values, 0, dst.get(i), 0, values.length);
+			}
+		}
+	}
+
+	/** End of source sentinel. */
+	private static final Slot END = new Slot();
+
+	/** The wrapped source. */
+	private final PatternSource source;
+	/** Number of patterns read ahead. */
+	private final int depth;
+	/** Queue of patterns read ahead. */
+	private final BlockingQueue<Slot> queue;
+	/** Queue of free slots. */
+	private final BlockingQueue<Slot> free;
+	/** All the slots, to recycle them on reset. */
+	private final List<Slot> slots = new ArrayList<>();
+
+	/** Producer thread, null if not started. */
+	private Thread producer;
+	/** Error raised by the producer. */
+	private volatile Throwable error;
+	/** Next pattern taken from the queue, not yet returned. */
+	private Slot pending;
+	/** Pattern returned by the last call to next. */
+	private Slot current;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param source The source to read ahead.
+	 * @param depth  The number of patterns to read ahead.
+	 */
+	public PrefetchingPatternSource(PatternSource source, int depth) {
+		if (depth < 1) throw new IllegalArgumentException("Depth must be at least 1");
+		this.source = source;
+		this.depth = depth;
+		this.queue = new ArrayBlockingQueue<>(depth + 1);
+		/* Slots in the queue, plus the one being filled, the pending one and the current one. */
+		this.free = new ArrayBlockingQueue<>(depth + 3);
+		for (int i = 0; i < depth + 3; i++) {
+			Slot slot = new Slot();
+			slots.add(slot);
+			free.add(slot);
+		}
+	}
+
+	/**
+	 * Return the number of patterns read ahead.
+	 * @return The depth.
+	 */
+	public int getDepth() { return depth; }
+
+	/**
+	 * Returns true it the source has more patterns, waiting for the producer if necessary.
+	 * @return A boolean.
+	 */
+	@Override
+	public boolean hasNext() {
+		if (pending == null) {
+			if (producer == null) start();
+			try {
+				pending = queue.take();
+			} catch (InterruptedException exc) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(exc);
+			}
+		}
+		if (pending == END) {
+			Throwable cause = error;
+			if (cause instanceof RuntimeException rte) throw rte;
+			if (cause instanceof Error err) throw err;
+			if (cause != null) throw new IllegalStateException(cause);
+			return false;
+		}
+		return true;
+	}
+	/**
+	 * Returns the next pattern, valid until the following call.
+	 * @return The next pattern.
+	 */
+	@Override
+	public Pattern next() {
+		if (!hasNext()) throw new NoSuchElementException();
+		if (current != null) free.add(current);
+		current = pending;
+		pending = null;
+		return current;
+	}
+	/**
+	 * Reset the source and point to the first pattern, stopping the producer.
+	 */
+	@Override
+	public void reset() {
+		close();
+		source.reset();
+	}
+	/**
+	 * Return the size of the wrapped source.
+	 * @return The size.
+	 */
+	@Override
+	public int size() { return source.size(); }
+
+	/**
+	 * Stop the producer thread and recycle all the slots. The source can be iterated again after a
+	 * reset.
+	 */
+	public void close() {
+		if (producer != null) {
+			producer.interrupt();
+			boolean interrupted = false;
+			while (producer.isAlive()) {
+				try {
+					producer.join();
+				} catch (InterruptedException exc) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) Thread.currentThread().interrupt();
+			producer = null;
+		}
+		error = null;
+		pending = null;
+		current = null;
+		queue.clear();
+		free.clear();
+		free.addAll(slots);
+	}
+
+	/**
+	 * Start the producer thread.
+	 */
+	private void start() {
+		producer = new Thread(this::produce, "pattern-prefetch");
+		producer.setDaemon(true);
+		producer.start();
+	}
+	/**
+	 * Producer loop, reads patterns from the source until it ends, an error occurs or the thread
+	 * is interrupted.
+	 */
+	private void produce() {
+		try {
+			while (source.hasNext()) {
+				Slot slot = free.take();
+				slot.copy(source.next());
+				queue.put(slot);
+			}
+			queue.put(END);
+		} catch (InterruptedException exc) {
+			/* Stopped by close. */
+		} catch (Throwable exc) {
+			error = exc;
+			queue.clear();
+			queue.offer(END);
+		}
+	}
+}
@@ -87,7 +87,19 @@ public abstract class Activation {
 	 * @param triggers The trigger (weighted sum plus bias) values.
 	 * @return The activation outputs .
 	 */
-	public abstract double[] activations(double[] triggers);
+	public double[] activations(double[] triggers) {
+		double[] outputs = new double[triggers.length];
+		activations(triggers, outputs);
+		return outputs;
+	}
+	/**
+	 * Calculates the output values of the function given the trigger values, into a caller owned
+	 * array that can be the array of triggers.
+	 *
+	 * @param triggers The trigger (weighted sum plus bias) values.
+	 * @param outputs  The destination activation outputs.
+	 */
+	public abstract void activations(double[] triggers, double[] outputs);
 
 	/**
 	 * Calculates the first derivatives of the function, given the outputs.
@@ -95,5 +107,17 @@ public abstract class Activation {
 	 * @param outputs The outputs obtained applying the triggers to <i>activations</i>.
 	 * @return The derivatives.
 	 */
-	public abstract double[] derivatives(double[] outputs);
+	public double[] derivatives(double[] outputs) {
+		double[] derivatives = new double[outputs.length];
+		derivatives(outputs, derivatives);
+		return derivatives;
+	}
+	/**
+	 * Calculates the first derivatives of the function given the outputs, into a caller owned array
+	 * that can be the array of outputs.
+	 *
+	 * @param outputs     The outputs obtained applying the triggers to <i>activations</i>.
+	 * @param derivatives The destination derivatives.
+	 */
+	public abstract void derivatives(double[] outputs, double[] derivatives);
 }
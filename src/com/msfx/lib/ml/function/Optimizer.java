@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.function;
+
+import com.msfx.lib.ml.function.optimizer.*;
+import com.msfx.lib.util.json.JSONObject;
+
+/**
+ * Optimizer that applies the gradients accumulated by the backward pass to the parameters.
+ * <p>
+ * An optimizer is owned by a network, and applied to every node with trainable parameters in an
+ * update pass after the backward pass. The state of the optimizer, like velocities or moments, is
+ * kept by each node in flat arrays parallel to its parameters, <i>getStateCount()</i> arrays per
+ * node, and the update is applied to ranges of the arrays, so that it can be split among threads.
+ * Gradients are in the direction that reduces the error, thus updates add them to the parameters.
+ * <p>
+ * All optimizers support a step decay of the learning rate: every <i>decayModule</i> steps the
+ * learning rate is multiplied by the decay factor, down to the minimum learning rate.
+ *
+ * @author Miquel Sas
+ */
+public abstract class Optimizer {
+
+	/**
+	 * Return the optimizer given the name in a restore operation, with default settings.
+	 *
+	 * @param name The optimizer name.
+	 * @return The optimizer given the name.
+	 */
+	public static Optimizer get(String name) {
+		if (name.equals(AdaGrad.class.getSimpleName())) return new AdaGrad();
+		if (name.equals(Adam.class.getSimpleName())) return new Adam();
+		if (name.equals(Nesterov.class.getSimpleName())) return new Nesterov();
+		if (name.equals(RMSProp.class.getSimpleName())) return new RMSProp();
+		if (name.equals(SGD.class.getSimpleName())) return new SGD();
+		throw new IllegalArgumentException("Invalid optimizer name: " + name);
+	}
+	/**
+	 * Restore an optimizer from a JSON object with its definition.
+	 *
+	 * @param obj The JSON object.
+	 * @return The optimizer.
+	 */
+	public static Optimizer fromJSONObject(JSONObject obj) {
+		Optimizer optimizer = get(obj.get("name").getString());
+		optimizer.learningRate = obj.get("learning-rate").getNumber().doubleValue();
+		optimizer.learningRateMin = obj.get("learning-rate-min").getNumber().doubleValue();
+		optimizer.decayModule = obj.get("decay-module").getNumber().intValue();
+		optimizer.decayFactor = obj.get("decay-factor").getNumber().doubleValue();
+		optimizer.restore(obj);
+		return optimizer;
+	}
+
+	/** Current learning rate. */
+	protected double learningRate;
+	/** Minimum learning rate. */
+	protected double learningRateMin;
+	/** Learning rate decay module in steps, zero for no decay. */
+	protected int decayModule = 0;
+	/** Learning rate decay factor. */
+	protected double decayFactor = 1.0;
+	/** Number of steps or update passes applied. */
+	private long steps = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param learningRate The learning rate.
+	 */
+	protected Optimizer(double learningRate) {
+		this.learningRate = learningRate;
+		this.learningRateMin = learningRate;
+	}
+
+	/**
+	 * Return the number of state arrays per node, each with the size of the parameters.
+	 *
+	 * @return The number of state arrays.
+	 */
+	public abstract int getStateCount();
+	/**
+	 * Apply the update to a range of the parameters. All arrays are parallel and the range is the
+	 * same in all of them.
+	 *
+	 * @param parameters The parameters, updated.
+	 * @param gradients  The accumulated gradients.
+	 * @param scale      The scale of the gradients, the inverse of the number accumulated.
+	 * @param state      The state arrays, updated.
+	 * @param offset     The offset of the range.
+	 * @param length     The length of the range.
+	 */
+	public abstract void update(
+		double[] parameters,
+		double[] gradients,
+		double scale,
+		double[][] state,
+		int offset,
+		int length);
+
+	/**
+	 * Count a step, called once after each update pass, and apply the learning rate decay.
+	 */
+	public void step() {
+		steps++;
+		if (decayModule > 0 && steps % decayModule == 0) {
+			learningRate = Math.max(learningRate * decayFactor, learningRateMin);
+		}
+	}
+	/**
+	 * Return the number of steps applied.
+	 *
+	 * @return The number of steps.
+	 */
+	public long getSteps() { return steps; }
+
+	/**
+	 * Return the current learning rate.
+	 *
+	 * @return The learning rate.
+	 */
+	public double getLearningRate() { return learningRate; }
+	/**
+	 * Set the learning rate.
+	 *
+	 * @param learningRate The learning rate.
+	 */
+	public void setLearningRate(double learningRate) {
+		if (learningRate <= 0) throw new IllegalArgumentException("Invalid learning rate " + learningRate);
+		this.learningRate = learningRate;
+		this.learningRateMin = Math.min(learningRateMin, learningRate);
+	}
+	/**
+	 * Set the step decay of the learning rate.
+	 *
+	 * @param decayModule     The number of steps between decays, zero for no decay.
+	 * @param decayFactor     The factor applied to the learning rate.
+	 * @param learningRateMin The minimum learning rate.
+	 */
+	public void setDecay(int decayModule, double decayFactor, double learningRateMin) {
+		if (decayModule < 0) throw new IllegalArgumentException("Invalid decay module " + decayModule);
+		this.decayModule = decayModule;
+		this.decayFactor = decayFactor;
+		this.learningRateMin = learningRateMin;
+	}
+
+	/**
+	 * Copy the progress of the learning rate schedule, the current learning rate and the number of
+	 * steps, from another optimizer, like the optimizer of a replica of the network.
+	 *
+	 * @param optimizer The source optimizer.
+	 */
+	public void copySchedule(Optimizer optimizer) {
+		learningRate = optimizer.learningRate;
+		steps = optimizer.steps;
+	}
+
+	/**
+	 * Return a copy with the same settings and the current learning rate, without steps.
+	 *
+	 * @return The copy.
+	 */
+	public Optimizer copy() { return fromJSONObject(toJSONObject()); }
+
+	/**
+	 * Return a JSON definition of the optimizer settings.
+	 *
+	 * @return The JSON definition.
+	 */
+	public JSONObject toJSONObject() {
+		JSONObject obj = new JSONObject();
+		obj.put("name", getClass().getSimpleName());
+		obj.put("learning-rate", learningRate);
+		obj.put("learning-rate-min", learningRateMin);
+		obj.put("decay-module", decayModule);
+		obj.put("decay-factor", decayFactor);
+		toJSONObject(obj);
+		return obj;
+	}
+	/**
+	 * Append the particular settings of the optimizer.
+	 *
+	 * @param obj The JSON object.
+	 */
+	protected void toJSONObject(JSONObject obj) { }
+	/**
+	 * Restore the particular settings of the optimizer.
+	 *
+	 * @param obj The JSON object.
+	 */
+	protected void restore(JSONObject obj) { }
+}
@@ -39,28 +39,24 @@ public class BipolarSigmoid extends Activation {
 	 * Apply activation.
 	 */
 	@Override
-	public double[] activations(double[] triggers) {
-		double[] outputs = new double[triggers.length];
+	public void activations(double[] triggers, double[] outputs) {
 		double exp = 0;
 		for (int i = 0; i < triggers.length; i++) {
 			exp = Math.exp(-(sigma * triggers[i]));
 			outputs[i] = (1 - exp) / (1 + exp);
 		}
-		return outputs;
 	}
 
 	/**
 	 * Apply derivatives.
 	 */
 	@Override
-	public double[] derivatives(double[] outputs) {
-		double[] derivatives = new double[outputs.length];
+	public void derivatives(double[] outputs, double[] derivatives) {
 		double out = 0;
 		double sig = sigma / 2;
 		for (int i = 0; i < outputs.length; i++) {
 			out = outputs[i];
 			derivatives[i] = sig * (1 + out) * (1 - out);
 		}
-		return derivatives;
 	}
 }
@@ -39,27 +39,23 @@ public class Sigmoid extends Activation {
 	 * Apply activation.
 	 */
 	@Override
-	public double[] activations(double[] triggers) {
-		double[] outputs = new double[triggers.length];
+	public void activations(double[] triggers, double[] outputs) {
 		double exp = 0;
 		for (int i = 0; i < triggers.length; i++) {
 			exp = Math.exp(-(sigma * triggers[i]));
 			outputs[i] = 1 / (1 + exp);
 		}
-		return outputs;
 	}
 
 	/**
 	 * Apply derivatives.
 	 */
 	@Override
-	public double[] derivatives(double[] outputs) {
-		double[] derivatives = new double[outputs.length];
+	public void derivatives(double[] outputs, double[] derivatives) {
 		double out = 0;
 		for (int i = 0; i < outputs.length; i++) {
 			out = outputs[i];
 			derivatives[i] = sigma * out * (1 - out);
 		}
-		return derivatives;
 	}
 }
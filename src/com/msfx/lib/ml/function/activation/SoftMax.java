@@ -17,15 +17,34 @@
 package com.msfx.lib.ml.function.activation;
 
 import com.msfx.lib.ml.function.Activation;
-import com.msfx.lib.util.Numbers;
+import com.msfx.lib.ml.kernel.Kernels;
 
 /**
- * Soft-max activation.
+ * Soft-max activation, computed with the maximum trigger subtracted so that large triggers do not
+ * overflow. The exponential, sum and scale loops run on the default <i>Kernels</i>, SIMD when
+ * available.
+ * <p>
+ * Derivatives are one, the soft-max being expected as the output of a network trained with the
+ * cross-entropy loss, where the delta of the triggers is the delta of the outputs. The
+ * <i>SoftMaxCrossEntropyNode</i> makes that pairing explicit.
  *
  * @author Miquel Sas
  */
 public class SoftMax extends Activation {
 
+	/** Kernels of the exponential, sum and scale loops. */
+	private static final Kernels KERNELS = Kernels.get();
+
+	/**
+	 * Return the logarithm of the sum of the exponentials of the triggers, computed stably.
+	 *
+	 * @param triggers The triggers.
+	 * @return The log-sum-exp.
+	 */
+	public static double logSumExp(double[] triggers) {
+		return KERNELS.logSumExp(triggers, 0, triggers.length);
+	}
+
 	/**
 	 * Constructor.
 	 */
@@ -35,31 +54,31 @@ public class SoftMax extends Activation {
 	 * Apply activations.
 	 */
 	@Override
-	public double[] activations(double[] triggers) {
-		double[] outputs = new double[triggers.length];
-		double div = 0;
+	public void activations(double[] triggers, double[] outputs) {
+		if (triggers.length == 0) return;
+		KERNELS.softMax(triggers, outputs, 0, triggers.length);
+	}
+	/**
+	 * Apply the logarithm of the activations, more accurate than the logarithm of the outputs for
+	 * very small probabilities.
+	 *
+	 * @param triggers The triggers.
+	 * @param outputs  The destination log-probabilities, can be the triggers.
+	 */
+	public void logActivations(double[] triggers, double[] outputs) {
+		double lse = logSumExp(triggers);
 		for (int i = 0; i < triggers.length; i++) {
-			double p = Numbers.bound(Math.exp(triggers[i]));
-			outputs[i] = p;
-			div += p;
-		}
-		if (div != 0) {
-			for (int i = 0; i < triggers.length; i++) {
-				outputs[i] /= div;
-			}
+			outputs[i] = triggers[i] - lse;
 		}
-		return outputs;
 	}
 
 	/**
 	 * Apply derivatives.
 	 */
 	@Override
-	public double[] derivatives(double[] outputs) {
-		double[] derivatives = new double[outputs.length];
+	public void derivatives(double[] outputs, double[] derivatives) {
 		for (int i = 0; i < outputs.length; i++) {
 			derivatives[i] = 1.0;
 		}
-		return derivatives;
 	}
 }
@@ -34,8 +34,7 @@ public class TANH extends Activation {
 	 * Apply activations.
 	 */
 	@Override
-	public double[] activations(double[] triggers) {
-		double[] outputs = new double[triggers.length];
+	public void activations(double[] triggers, double[] outputs) {
 		double epos = 0;
 		double eneg = 0;
 		for (int i = 0; i < triggers.length; i++) {
@@ -43,18 +42,15 @@ public class TANH extends Activation {
 			eneg = Math.exp(-triggers[i]);
 			outputs[i] = (epos - eneg) / (epos + eneg);
 		}
-		return outputs;
 	}
 
 	/**
 	 * Apply derivatives.
 	 */
 	@Override
-	public double[] derivatives(double[] outputs) {
-		double[] derivatives = new double[outputs.length];
+	public void derivatives(double[] outputs, double[] derivatives) {
 		for (int i = 0; i < outputs.length; i++) {
 			derivatives[i] = (1.0 + outputs[i]) * (1 - outputs[i]);
 		}
-		return derivatives;
 	}
 }
@@ -18,7 +18,6 @@ package com.msfx.lib.ml.function.match;
 
 import com.msfx.lib.ml.function.Matcher;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -44,9 +43,6 @@ public class CategoryMatcher implements Matcher {
 	 */
 	@Override
 	public boolean match(List<double[]> patternOutput, List<double[]> networkOutput) {
-
-		List<Integer> indexesPattern = new ArrayList<>();
-		List<Integer> indexesNetwork = new ArrayList<>();
 		for (int i = 0; i < patternOutput.size(); i++) {
 			double[] pattern = patternOutput.get(i);
 			double[] network = networkOutput.get(i);
@@ -64,12 +60,7 @@ public class CategoryMatcher implements Matcher {
 					indexNetwork = j;
 				}
 			}
-			indexesPattern.add(indexPattern);
-			indexesNetwork.add(indexNetwork);
-		}
-
-		for (int i = 0; i < indexesPattern.size(); i++) {
-			if (indexesPattern.get(i) != indexesNetwork.get(i)) {
+			if (indexPattern != indexNetwork) {
 				return false;
 			}
 		}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.function.optimizer;
+
+import com.msfx.lib.ml.function.Optimizer;
+import com.msfx.lib.util.json.JSONObject;
+
+/**
+ * AdaGrad, that divides the gradients by the root of the sum of all the squared gradients,
+ * <i>w += rate * g / (sqrt(v) + epsilon)</i>.
+ *
+ * @author Miquel Sas
+ */
+public class AdaGrad extends Optimizer {
+
+	/** Term that avoids divisions by zero. */
+	private double epsilon = 1.0e-8;
+
+	/**
+	 * Constructor with a learning rate of 0.01.
+	 */
+	public AdaGrad() { super(0.01); }
+	/**
+	 * Constructor.
+	 *
+	 * @param learningRate The learning rate.
+	 */
+	public AdaGrad(double learningRate) {
+		this();
+		setLearningRate(learningRate);
+	}
+
+	/**
+	 * One state array, the sum of squared gradients.
+	 */
+	@Override
+	public int getStateCount() { return 1; }
+
+	/**
+	 * Apply the AdaGrad update.
+	 */
+	@Override
+	public void update(double[] parameters, double[] gradients, double scale, double[][] state, int offset, int length) {
+		double[] v = state[0];
+		for (int i = offset; i < offset + length; i++) {
+			double g = gradients[i] * scale;
+			v[i] += g * g;
+			parameters[i] += learningRate * g / (Math.sqrt(v[i]) + epsilon);
+		}
+	}
+
+	@Override
+	protected void toJSONObject(JSONObject obj) { obj.put("epsilon", epsilon); }
+	@Override
+	protected void restore(JSONObject obj) { epsilon = obj.get("epsilon").getNumber().doubleValue(); }
+}
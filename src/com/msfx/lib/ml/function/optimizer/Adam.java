@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.function.optimizer;
+
+import com.msfx.lib.ml.function.Optimizer;
+import com.msfx.lib.util.json.JSONObject;
+
+/**
+ * Adam, adaptive moment estimation, with bias corrected first and second moments of the
+ * gradients, <i>w += rate * m / (sqrt(v) + epsilon)</i>.
+ *
+ * @author Miquel Sas
+ */
+public class Adam extends Optimizer {
+
+	/** Decay of the first moment. */
+	private double beta1 = 0.9;
+	/** Decay of the second moment. */
+	private double beta2 = 0.999;
+	/** Term that avoids divisions by zero. */
+	private double epsilon = 1.0e-8;
+
+	/**
+	 * Constructor with a learning rate of 0.001 and the usual betas.
+	 */
+	public Adam() { super(0.001); }
+	/**
+	 * Constructor.
+	 *
+	 * @param learningRate The learning rate.
+	 * @param beta1        The decay of the first moment.
+	 * @param beta2        The decay of the second moment.
+	 */
+	public Adam(double learningRate, double beta1, double beta2) {
+		this();
+		setLearningRate(learningRate);
+		if (beta1 < 0 || beta1 >= 1) throw new IllegalArgumentException("Invalid beta1 " + beta1);
+		if (beta2 < 0 || beta2 >= 1) throw new IllegalArgumentException("Invalid beta2 " + beta2);
+		this.beta1 = beta1;
+		this.beta2 = beta2;
+	}
+
+	/**
+	 * Two state arrays, the first and second moments.
+	 */
+	@Override
+	public int getStateCount() { return 2; }
+
+	/**
+	 * Apply the Adam update, folding the bias corrections into the step size.
+	 */
+	@Override
+	public void update(double[] parameters, double[] gradients, double scale, double[][] state, int offset, int length) {
+		double[] m = state[0];
+		double[] v = state[1];
+		long t = getSteps() + 1;
+		double correction1 = 1 - Math.pow(beta1, t);
+		double correction2 = 1 - Math.pow(beta2, t);
+		double rate = learningRate * Math.sqrt(correction2) / correction1;
+		double eps = epsilon * Math.sqrt(correction2);
+		for (int i = offset; i < offset + length; i++) {
+			double g = gradients[i] * scale;
+			m[i] = beta1 * m[i] + (1 - beta1) * g;
+			v[i] = beta2 * v[i] + (1 - beta2) * g * g;
+			parameters[i] += rate * m[i] / (Math.sqrt(v[i]) + eps);
+		}
+	}
+
+	@Override
+	protected void toJSONObject(JSONObject obj) {
+		obj.put("beta1", beta1);
+		obj.put("beta2", beta2);
+		obj.put("epsilon", epsilon);
+	}
+	@Override
+	protected void restore(JSONObject obj) {
+		beta1 = obj.get("beta1").getNumber().doubleValue();
+		beta2 = obj.get("beta2").getNumber().doubleValue();
+		epsilon = obj.get("epsilon").getNumber().doubleValue();
+	}
+}
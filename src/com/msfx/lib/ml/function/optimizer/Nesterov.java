@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.function.optimizer;
+
+import com.msfx.lib.ml.function.Optimizer;
+import com.msfx.lib.util.json.JSONObject;
+
+/**
+ * Nesterov accelerated gradient, <i>v = momentum * v + g</i> and
+ * <i>w += rate * (momentum * v + g)</i>, that looks ahead along the velocity.
+ *
+ * @author Miquel Sas
+ */
+public class Nesterov extends Optimizer {
+
+	/** Momentum factor. */
+	private double momentum = 0.9;
+
+	/**
+	 * Constructor with a learning rate of 0.01 and a momentum of 0.9.
+	 */
+	public Nesterov() { super(0.01); }
+	/**
+	 * Constructor.
+	 *
+	 * @param learningRate The learning rate.
+	 * @param momentum     The momentum.
+	 */
+	public Nesterov(double learningRate, double momentum) {
+		this();
+		setLearningRate(learningRate);
+		setMomentum(momentum);
+	}
+
+	/**
+	 * Return the momentum.
+	 *
+	 * @return The momentum.
+	 */
+	public double getMomentum() { return momentum; }
+	/**
+	 * Set the momentum.
+	 *
+	 * @param momentum The momentum, in [0, 1).
+	 */
+	public void setMomentum(double momentum) {
+		if (momentum < 0 || momentum >= 1) throw new IllegalArgumentException("Invalid momentum " + momentum);
+		this.momentum = momentum;
+	}
+
+	/**
+	 * One state array, the velocity.
+	 */
+	@Override
+	public int getStateCount() { return 1; }
+
+	/**
+	 * Apply the Nesterov update.
+	 */
+	@Override
+	public void update(double[] parameters, double[] gradients, double scale, double[][] state, int offset, int length) {
+		double[] velocity = state[0];
+		for (int i = offset; i < offset + length; i++) {
+			double g = gradients[i] * scale;
+			double v = momentum * velocity[i] + g;
+			velocity[i] = v;
+			parameters[i] += learningRate * (momentum * v + g);
+		}
+	}
+
+	@Override
+	protected void toJSONObject(JSONObject obj) { obj.put("momentum", momentum); }
+	@Override
+	protected void restore(JSONObject obj) { momentum = obj.get("momentum").getNumber().doubleValue(); }
+}
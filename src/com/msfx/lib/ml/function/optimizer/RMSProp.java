@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.function.optimizer;
+
+import com.msfx.lib.ml.function.Optimizer;
+import com.msfx.lib.util.json.JSONObject;
+
+/**
+ * RMSProp, that divides the gradients by a moving average of their magnitude,
+ * <i>w += rate * g / (sqrt(v) + epsilon)</i>.
+ *
+ * @author Miquel Sas
+ */
+public class RMSProp extends Optimizer {
+
+	/** Decay of the moving average of squared gradients. */
+	private double rho = 0.9;
+	/** Term that avoids divisions by zero. */
+	private double epsilon = 1.0e-8;
+
+	/**
+	 * Constructor with a learning rate of 0.001 and a decay of 0.9.
+	 */
+	public RMSProp() { super(0.001); }
+	/**
+	 * Constructor.
+	 *
+	 * @param learningRate The learning rate.
+	 * @param rho          The decay of the moving average.
+	 */
+	public RMSProp(double learningRate, double rho) {
+		this();
+		setLearningRate(learningRate);
+		if (rho < 0 || rho >= 1) throw new IllegalArgumentException("Invalid rho " + rho);
+		this.rho = rho;
+	}
+
+	/**
+	 * One state array, the moving average of squared gradients.
+	 */
+	@Override
+	public int getStateCount() { return 1; }
+
+	/**
+	 * Apply the RMSProp update.
+	 */
+	@Override
+	public void update(double[] parameters, double[] gradients, double scale, double[][] state, int offset, int length) {
+		double[] v = state[0];
+		for (int i = offset; i < offset + length; i++) {
+			double g = gradients[i] * scale;
+			v[i] = rho * v[i] + (1 - rho) * g * g;
+			parameters[i] += learningRate * g / (Math.sqrt(v[i]) + epsilon);
+		}
+	}
+
+	@Override
+	protected void toJSONObject(JSONObject obj) {
+		obj.put("rho", rho);
+		obj.put("epsilon", epsilon);
+	}
+	@Override
+	protected void restore(JSONObject obj) {
+		rho = obj.get("rho").getNumber().doubleValue();
+		epsilon = obj.get("epsilon").getNumber().doubleValue();
+	}
+}
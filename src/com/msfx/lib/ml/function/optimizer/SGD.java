@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.function.optimizer;
+
+import com.msfx.lib.ml.function.Optimizer;
+import com.msfx.lib.ml.kernel.Kernels;
+import com.msfx.lib.util.json.JSONObject;
+
+/**
+ * Stochastic gradient descent with momentum, <i>v = momentum * v + (1 - momentum) * g</i> and
+ * <i>w += rate * v</i>. The default optimizer, with a learning rate of 0.1 that decays by 0.999
+ * every 1000 steps down to 0.005, and no momentum.
+ *
+ * @author Miquel Sas
+ */
+public class SGD extends Optimizer {
+
+	/** Momentum factor. */
+	private double momentum = 0.0;
+	/** Numeric kernels. */
+	private final Kernels kernels = Kernels.get();
+
+	/**
+	 * Constructor with default settings.
+	 */
+	public SGD() {
+		super(0.1);
+		setDecay(1000, 0.999, 0.005);
+	}
+	/**
+	 * Constructor.
+	 *
+	 * @param learningRate The learning rate.
+	 * @param momentum     The momentum.
+	 */
+	public SGD(double learningRate, double momentum) {
+		this();
+		setLearningRate(learningRate);
+		setMomentum(momentum);
+	}
+
+	/**
+	 * Return the momentum.
+	 *
+	 * @return The momentum.
+	 */
+	public double getMomentum() { return momentum; }
+	/**
+	 * Set the momentum.
+	 *
+	 * @param momentum The momentum, in [0, 1).
+	 */
+	public void setMomentum(double momentum) {
+		if (momentum < 0 || momentum >= 1) throw new IllegalArgumentException("Invalid momentum " + momentum);
+		this.momentum = momentum;
+	}
+
+	/**
+	 * One state array, the velocity.
+	 */
+	@Override
+	public int getStateCount() { return 1; }
+
+	/**
+	 * Apply the momentum update.
+	 */
+	@Override
+	public void update(double[] parameters, double[] gradients, double scale, double[][] state, int offset, int length) {
+		kernels.momentum(parameters, state[0], gradients, scale, momentum, learningRate, offset, length);
+	}
+
+	@Override
+	protected void toJSONObject(JSONObject obj) { obj.put("momentum", momentum); }
+	@Override
+	protected void restore(JSONObject obj) {
+		if (obj.contains("momentum")) momentum = obj.get("momentum").getNumber().doubleValue();
+	}
+}
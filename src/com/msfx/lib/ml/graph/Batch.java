@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.graph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A mini-batch of patterns. Holds one block of data per edge, each block being a matrix
+ * <i>[batchSize x edgeSize]</i> where each row is the vector of a pattern.
+ * <p>
+ * A batch is pushed forward or backward to the network in a single call, and nodes process the
+ * whole block at once, accumulating gradients across the batch and applying them once.
+ *
+ * @author Miquel Sas
+ */
+public class Batch {
+
+	/** Number of patterns (rows) in the batch. */
+	private final int size;
+	/** List of blocks [size][edge size], one per edge. */
+	private final List<double[][]> blocks;
+
+	/**
+	 * Constructor of an empty batch.
+	 *
+	 * @param size  The number of patterns (rows) in the batch.
+	 * @param sizes The list of edge sizes.
+	 */
+	public Batch(int size, List<Integer> sizes) {
+		if (size <= 0) throw new IllegalArgumentException("Invalid batch size " + size);
+		this.size = size;
+		this.blocks = new ArrayList<>();
+		for (int edgeSize : sizes) {
+			blocks.add(new double[size][edgeSize]);
+		}
+	}
+	/**
+	 * Constructor with the list of blocks.
+	 *
+	 * @param blocks The list of blocks, all with the same number of rows.
+	 */
+	public Batch(List<double[][]> blocks) {
+		if (blocks.isEmpty()) throw new IllegalArgumentException("Empty list of blocks");
+		this.size = blocks.get(0).length;
+		for (double[][] block : blocks) {
+			if (block.length != size) throw new IllegalArgumentException("Invalid block size");
+		}
+		this.blocks = new ArrayList<>(blocks);
+	}
+
+	/**
+	 * Return the block of the edge at the given index.
+	 *
+	 * @param index The index of the edge.
+	 * @return The block [size][edge size].
+	 */
+	public double[][] get(int index) { return blocks.get(index); }
+	/**
+	 * Return the list of blocks.
+	 *
+	 * @return The unmodifiable list of blocks.
+	 */
+	public List<double[][]> getBlocks() { return Collections.unmodifiableList(blocks); }
+	/**
+	 * Return the number of blocks or edges.
+	 *
+	 * @return The number of blocks.
+	 */
+	public int getBlockCount() { return blocks.size(); }
+
+	/**
+	 * Return the list of vectors of the pattern at the given row, one per edge.
+	 *
+	 * @param row The row.
+	 * @return The list of vectors.
+	 */
+	public List<double[]> getRow(int row) {
+		List<double[]> values = new ArrayList<>();
+		for (double[][] block : blocks) {
+			values.add(block[row]);
+		}
+		return values;
+	}
+	/**
+	 * Copy the list of vectors of a pattern into the given row.
+	 *
+	 * @param row    The row.
+	 * @param values The list of vectors, one per edge.
+	 */
+	public void setRow(int row, List<double[]> values) {
+		if (values.size() != blocks.size()) throw new IllegalArgumentException("Sizes do not match.");
+		for (int i = 0; i < blocks.size(); i++) {
+			double[] src = values.get(i);
+			double[] dst = blocks.get(i)[row];
+			if (src.length != dst.length) throw new IllegalArgumentException("Invalid values size");
+			System.arraycopy(src, 0, dst, 0, src.length);
+		}
+	}
+
+	/**
+	 * Return the number of patterns (rows) in the batch.
+	 *
+	 * @return The batch size.
+	 */
+	public int size() { return size; }
+}
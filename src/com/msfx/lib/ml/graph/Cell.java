@@ -150,13 +150,19 @@ public class Cell {
 	 * Return a JSON definition of the edge.
 	 * @return The JSON definition.
 	 */
-	public JSONObject toJSONObject() {
+	public JSONObject toJSONObject() { return toJSONObject(true); }
+	/**
+	 * Return a JSON definition of the cell, optionally without the parameters of the nodes.
+	 * @param parameters A boolean that indicates whether to include the parameters.
+	 * @return The JSON definition.
+	 */
+	public JSONObject toJSONObject(boolean parameters) {
 		JSONObject def = new JSONObject();
 		def.put("uuid", getUUID().toString());
 		def.put("name", name);
 		JSONArray arrNodes = new JSONArray();
 		for (Node node : nodes.values()) {
-			arrNodes.add(node.toJSONObject());
+			arrNodes.add(node.toJSONObject(parameters));
 		}
 		def.put("nodes", arrNodes);
 		return def;
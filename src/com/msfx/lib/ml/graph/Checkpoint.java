@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.graph;
+
+import com.msfx.lib.util.json.JSONObject;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Binary checkpoint of a network. The file starts with a header and the topology as compact JSON
+ * without parameters, followed by one block per node with parameters, with the node UUID, the
+ * number of values and the values as raw little-endian doubles. All sections are aligned to eight
+ * bytes, so that the blocks of values can be mapped as double buffers.
+ *
+ * @author Miquel Sas
+ */
+final class Checkpoint {
+
+	/** Magic number that identifies the file format. */
+	static final int MAGIC = 0x4D534643;
+	/** Format version. */
+	static final int VERSION = 1;
+	/** Size of the buffer used to transfer values. */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * A block of parameters located in the file.
+	 */
+	record Block(UUID uuid, long position, int length) { }
+	/**
+	 * The header of the file, the topology and the list of blocks.
+	 */
+	record Header(JSONObject topology, List<Block> blocks) { }
+
+	/**
+	 * Write the checkpoint of the network.
+	 *
+	 * @param network The network, initialized and in double precision.
+	 * @param file    The file.
+	 * @throws IOException If such an error occurs.
+	 */
+	static void write(Network network, Path file) throws IOException {
+
+		/* Nodes with parameters. */
+		List<Node> nodes = new ArrayList<>();
+		for (Node node : network.getNodes()) {
+			if (node.getParameters() != null) nodes.add(node);
+		}
+
+		byte[] topology = network.toJSONObject(false).toString().getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+		try (FileChannel channel = FileChannel.open(
+				file,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+
+			/* Header and topology. */
+			ByteBuffer header = ByteBuffer.allocate(align(12 + topology.length) + 8).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putInt(topology.length);
+			header.put(topology);
+			header.position(align(12 + topology.length));
+			header.putInt(nodes.size());
+			header.putInt(0);
+			header.flip();
+			write(channel, header);
+
+			/* Blocks. */
+			for (Node node : nodes) {
+				double[] values = node.getParameters();
+				buffer.clear();
+				buffer.putLong(node.getUUID().getMostSignificantBits());
+				buffer.putLong(node.getUUID().getLeastSignificantBits());
+				buffer.putLong(values.length);
+				buffer.flip();
+				write(channel, buffer);
+				int offset = 0;
+				while (offset < values.length) {
+					int length = Math.min(values.length - offset, BUFFER_SIZE / Double.BYTES);
+					buffer.clear();
+					buffer.asDoubleBuffer().put(values, offset, length);
+					buffer.limit(length * Double.BYTES);
+					write(channel, buffer);
+					offset += length;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read the checkpoint into the network, restoring the topology and copying the parameters.
+	 *
+	 * @param network The empty network.
+	 * @param file    The file.
+	 * @throws IOException If such an error occurs.
+	 */
+	static void read(Network network, Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			Header header = readHeader(channel);
+			network.fromJSONObject(header.topology());
+			Map<UUID, Node> nodes = network.getNodeMap();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			for (Block block : header.blocks()) {
+				double[] values = getParameters(nodes, block);
+				channel.position(block.position());
+				int offset = 0;
+				while (offset < values.length) {
+					int length = Math.min(values.length - offset, BUFFER_SIZE / Double.BYTES);
+					buffer.clear();
+					buffer.limit(length * Double.BYTES);
+					read(channel, buffer);
+					buffer.flip();
+					buffer.asDoubleBuffer().get(values, offset, length);
+					offset += length;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Map the checkpoint into the network, restoring the topology with the weights of the weights
+	 * nodes mapped read-only from the file, and copying the rest of parameters. The mapped regions
+	 * remain valid after the file is closed and are shared through the page cache.
+	 *
+	 * @param network The empty network.
+	 * @param file    The file.
+	 * @throws IOException If such an error occurs.
+	 */
+	static void map(Network network, Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			Header header = readHeader(channel);
+			Map<UUID, ByteBuffer> buffers = new HashMap<>();
+			for (Block block : header.blocks()) {
+				long size = (long) block.length() * Double.BYTES;
+				if (size > Integer.MAX_VALUE) throw new IOException("Checkpoint block too large to map " + block.uuid());
+				ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, block.position(), size);
+				buffers.put(block.uuid(), buffer.order(ByteOrder.LITTLE_ENDIAN));
+			}
+			try {
+				network.fromJSONObject(header.topology(), buffers);
+			} catch (IllegalArgumentException exc) {
+				throw new IOException("Checkpoint blocks do not match the topology", exc);
+			}
+			Map<UUID, Node> nodes = network.getNodeMap();
+			for (Block block : header.blocks()) {
+				Node node = nodes.get(block.uuid());
+				if (node == null) throw new IOException("Checkpoint block does not match node " + block.uuid());
+				/* Mapped nodes have no parameters on the heap. */
+				if (node.getParameters() == null) continue;
+				double[] values = getParameters(nodes, block);
+				buffers.get(block.uuid()).asDoubleBuffer().get(values);
+			}
+		}
+	}
+
+	/**
+	 * Read the header, with the topology and the list of blocks.
+	 *
+	 * @param channel The channel positioned at the beginning.
+	 * @return The header.
+	 * @throws IOException If such an error occurs.
+	 */
+	static Header readHeader(FileChannel channel) throws IOException {
+
+		ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+		read(channel, header);
+		header.flip();
+		if (header.getInt() != MAGIC) throw new IOException("Invalid checkpoint file");
+		if (header.getInt() != VERSION) throw new IOException("Unsupported checkpoint version");
+		int length = header.getInt();
+
+		ByteBuffer topology = ByteBuffer.allocate(align(12 + length) - 12 + 8).order(ByteOrder.LITTLE_ENDIAN);
+		read(channel, topology);
+		topology.flip();
+		byte[] bytes = new byte[length];
+		topology.get(bytes);
+		topology.position(align(12 + length) - 12);
+		int count = topology.getInt();
+
+		JSONObject json = JSONObject.parse(new String(bytes, StandardCharsets.UTF_8));
+
+		List<Block> blocks = new ArrayList<>();
+		ByteBuffer blockHeader = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+		long position = channel.position();
+		for (int i = 0; i < count; i++) {
+			blockHeader.clear();
+			channel.position(position);
+			read(channel, blockHeader);
+			blockHeader.flip();
+			UUID uuid = new UUID(blockHeader.getLong(), blockHeader.getLong());
+			long values = blockHeader.getLong();
+			if (values < 0 || values > Integer.MAX_VALUE) throw new IOException("Invalid block length " + values);
+			blocks.add(new Block(uuid, position + 24, (int) values));
+			position += 24 + values * Double.BYTES;
+		}
+		return new Header(json, blocks);
+	}
+
+	/**
+	 * Return the parameters of the node of the block, checking that the sizes match.
+	 *
+	 * @param nodes The map of nodes by UUID.
+	 * @param block The block.
+	 * @return The parameters.
+	 * @throws IOException If the block does not match a node.
+	 */
+	static double[] getParameters(Map<UUID, Node> nodes, Block block) throws IOException {
+		Node node = nodes.get(block.uuid());
+		double[] values = (node == null ? null : node.getParameters());
+		if (values == null || values.length != block.length()) {
+			throw new IOException("Checkpoint block does not match node " + block.uuid());
+		}
+		return values;
+	}
+
+	/**
+	 * Read the buffer fully.
+	 *
+	 * @param channel The channel.
+	 * @param buffer  The buffer.
+	 * @throws IOException If such an error occurs.
+	 */
+	private static void read(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) throw new EOFException("Truncated checkpoint file");
+		}
+	}
+	/**
+	 * Write the buffer fully.
+	 *
+	 * @param channel The channel.
+	 * @param buffer  The buffer.
+	 * @throws IOException If such an error occurs.
+	 */
+	private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) channel.write(buffer);
+	}
+	/**
+	 * Align the position to eight bytes.
+	 *
+	 * @param position The position.
+	 * @return The aligned position.
+	 */
+	private static int align(int position) { return (position + 7) & ~7; }
+
+	/**
+	 * Private constructor.
+	 */
+	private Checkpoint() { }
+}
@@ -18,8 +18,8 @@ package com.msfx.lib.ml.graph;
 
 import com.msfx.lib.util.json.JSONObject;
 
+import java.util.ArrayDeque;
 import java.util.Deque;
-import java.util.LinkedList;
 import java.util.UUID;
 
 /**
@@ -36,6 +36,19 @@ import java.util.UUID;
  * <p>
  * An edge without an input node is an input edge. An edge without an output node is an output edge.
  * An edge with both an input and an output node is a transfer edge.
+ * <p>
+ * By default the forward and backward queues are unbounded deques that keep a reference to the
+ * pushed vectors. Calling <i>allocateRings()</i> switches the edge to fixed-depth rings of
+ * preallocated buffers, where pushed vectors are copied and the values returned are views of the
+ * ring buffers.
+ * <p>
+ * A recurrent edge, whose output node is executed before its input node in the forward order,
+ * is read by the forward pass of a step before the value of the step is pushed. The backward pass
+ * rewinds it first, so that nodes read the same value that was read going forward. It keeps a
+ * single vector of backward deltas that is replaced by each push and survives the unfold, so that
+ * the deltas pushed when going backward a step are read when going backward the previous step.
+ * The deltas are discarded when the forward queue becomes empty, that is, at the beginning of the
+ * sequence.
  *
  * @author Miquel Sas
  */
@@ -58,11 +71,48 @@ public class Edge {
 	/**
 	 * Deque to maintain the backward queue (deltas).
 	 */
-	private final Deque<double[]> backwardQueue = new LinkedList<>();
+	private final Deque<double[]> backwardQueue = new ArrayDeque<>();
 	/**
 	 * Deque to maintain the forward queue (values).
 	 */
-	private final Deque<double[]> forwardQueue = new LinkedList<>();
+	private final Deque<double[]> forwardQueue = new ArrayDeque<>();
+	/**
+	 * Deque to maintain the backward queue of batch blocks (deltas).
+	 */
+	private final Deque<double[][]> backwardBatchQueue = new ArrayDeque<>();
+	/**
+	 * Deque to maintain the forward queue of batch blocks (values).
+	 */
+	private final Deque<double[][]> forwardBatchQueue = new ArrayDeque<>();
+
+	/**
+	 * Optional ring that replaces the backward queue.
+	 */
+	private Ring backwardRing;
+	/**
+	 * Optional ring that replaces the forward queue.
+	 */
+	private Ring forwardRing;
+	/**
+	 * A boolean that indicates whether the edge is recurrent.
+	 */
+	private boolean recurrent;
+	/**
+	 * Backward deltas of a recurrent edge, kept across unfolds.
+	 */
+	private double[] carry;
+	/**
+	 * A boolean that indicates whether the recurrent edge has backward deltas.
+	 */
+	private boolean carrying;
+	/**
+	 * A boolean that indicates whether the recurrent edge has been rewound in the current backward.
+	 */
+	private boolean rewound;
+	/**
+	 * Vector of zeros returned when a queue is empty.
+	 */
+	private final double[] zeros;
 
 	/**
 	 * Size of the forward and backward vectors.
@@ -84,27 +134,157 @@ public class Edge {
 	Edge(int size, UUID uuid) {
 		this.size = size;
 		this.uuid = uuid;
+		this.zeros = new double[size];
+	}
+
+	/**
+	 * Push a new vector of backward deltas and return it to be filled by the caller. In ring mode
+	 * the vector is a reused buffer that may contain previous values.
+	 *
+	 * @return The vector to fill with the deltas.
+	 */
+	public double[] acquireBackward() {
+		if (recurrent) {
+			carrying = true;
+			return carry;
+		}
+		if (backwardRing != null) return backwardRing.push();
+		double[] deltas = new double[size];
+		backwardQueue.addFirst(deltas);
+		return deltas;
+	}
+	/**
+	 * Push a new vector of forward values and return it to be filled by the caller. In ring mode
+	 * the vector is a reused buffer that may contain previous values.
+	 *
+	 * @return The vector to fill with the values.
+	 */
+	public double[] acquireForward() {
+		if (forwardRing != null) return forwardRing.push();
+		double[] values = new double[size];
+		forwardQueue.addFirst(values);
+		return values;
+	}
+
+	/**
+	 * Switch the forward and backward queues to fixed-depth rings of preallocated buffers, or back
+	 * to unbounded deques if the depth is zero. Any queued data is discarded. When more vectors than
+	 * the depth are pushed, the oldest ones are overwritten.
+	 *
+	 * @param depth The depth of the rings, or zero to use unbounded deques.
+	 */
+	public void allocateRings(int depth) {
+		if (depth < 0) throw new IllegalArgumentException("Invalid depth " + depth);
+		clear();
+		backwardRing = (depth > 0 ? new Ring(depth, size) : null);
+		forwardRing = (depth > 0 ? new Ring(depth, size) : null);
+	}
+
+	/**
+	 * Discard all queued data, to start a new sequence.
+	 */
+	void clear() {
+		backwardQueue.clear();
+		forwardQueue.clear();
+		backwardBatchQueue.clear();
+		forwardBatchQueue.clear();
+		if (backwardRing != null) backwardRing.clear();
+		if (forwardRing != null) forwardRing.clear();
+		carrying = false;
+		rewound = false;
+	}
+
+	/**
+	 * Pop the forward values of a recurrent edge before the backward pass, so that the backward
+	 * pass reads the values that were read by the forward pass of the step. The next unfold does
+	 * not pop them again.
+	 */
+	void rewind() {
+		if (!recurrent || rewound) return;
+		popForward();
+		rewound = true;
+	}
+
+	/**
+	 * Set whether the edge is recurrent, called when the network is compiled.
+	 *
+	 * @param recurrent A boolean.
+	 */
+	void setRecurrent(boolean recurrent) {
+		this.recurrent = recurrent;
+		this.carry = (recurrent ? new double[size] : null);
+		this.carrying = false;
+		this.rewound = false;
+	}
+	/**
+	 * Check whether the edge is recurrent, that is, its output node is executed before its input
+	 * node in the forward order.
+	 *
+	 * @return A boolean.
+	 */
+	public boolean isRecurrent() { return recurrent; }
+
+	/**
+	 * Drop the backward queues and rings, when the network is frozen for inference. The forward
+	 * queue or ring is kept for the forward passes.
+	 */
+	void freeze() {
+		backwardQueue.clear();
+		backwardBatchQueue.clear();
+		backwardRing = null;
 	}
 
 	/**
-	 * Return the backward deltas.
+	 * Return the backward deltas. When the queue is empty, a shared vector of zeros that must not
+	 * be modified is returned.
 	 *
 	 * @return The backward data, normally called deltas.
 	 */
 	public double[] getBackwardDeltas() {
-		if (backwardQueue.isEmpty()) return new double[size];
+		if (recurrent) return (carrying ? carry : zeros);
+		if (backwardRing != null) {
+			double[] deltas = backwardRing.peek();
+			return (deltas == null ? zeros : deltas);
+		}
+		if (backwardQueue.isEmpty()) return zeros;
 		return backwardQueue.getFirst();
 	}
 	/**
-	 * Return the forward values.
+	 * Return the forward values. When the queue is empty, a shared vector of zeros that must not be
+	 * modified is returned.
 	 *
 	 * @return The forward data, normally called values.
 	 */
 	public double[] getForwardValues() {
-		if (forwardQueue.isEmpty()) return new double[size];
+		if (forwardRing != null) {
+			double[] values = forwardRing.peek();
+			return (values == null ? zeros : values);
+		}
+		if (forwardQueue.isEmpty()) return zeros;
 		return forwardQueue.getFirst();
 	}
 
+	/**
+	 * Return the backward batch block of deltas.
+	 *
+	 * @param rows The number of rows of the empty block returned when the queue is empty.
+	 * @return The backward block [rows][size].
+	 */
+	public double[][] getBackwardBatch(int rows) {
+		if (backwardBatchQueue.isEmpty()) return new double[rows][size];
+		return backwardBatchQueue.getFirst();
+	}
+	/**
+	 * Return the forward batch block of values.
+	 *
+	 * @param rows The number of rows of the empty block returned when the queue is empty.
+	 * @return The forward block [rows][size].
+	 */
+	public double[][] getForwardBatch(int rows) {
+		if (forwardBatchQueue.isEmpty()) return new double[rows][size];
+		return forwardBatchQueue.getFirst();
+	}
+
 	/**
 	 * Return the universal unique id.
 	 *
@@ -157,23 +337,60 @@ public class Edge {
 	public boolean isTransfer() { return inputNode != null && outputNode != null; }
 
 	/**
-	 * Push backward values (deltas), adding them at the beginning of the backward queue.
+	 * Push backward values (deltas), adding them at the beginning of the backward queue. In ring
+	 * mode the values are copied to the next buffer.
 	 *
 	 * @param deltas The vector of output deltas.
 	 */
 	public void pushBackward(double[] deltas) {
 		if (deltas.length != size) throw new IllegalArgumentException("Invalid output deltas size");
+		if (recurrent) {
+			System.arraycopy(deltas, 0, carry, 0, size);
+			carrying = true;
+			return;
+		}
+		if (backwardRing != null) {
+			System.arraycopy(deltas, 0, backwardRing.push(), 0, size);
+			return;
+		}
 		backwardQueue.addFirst(deltas);
 	}
 	/**
-	 * Push forward values, adding them at the beginning of the forward queue.
+	 * Push forward values, adding them at the beginning of the forward queue. In ring mode the
+	 * values are copied to the next buffer.
 	 *
 	 * @param values The vector of input values.
 	 */
 	public void pushForward(double[] values) {
 		if (values.length != size) throw new IllegalArgumentException("Invalid input values size");
+		if (forwardRing != null) {
+			System.arraycopy(values, 0, forwardRing.push(), 0, size);
+			return;
+		}
 		forwardQueue.addFirst(values);
 	}
+	/**
+	 * Push a backward block of deltas, adding it at the beginning of the backward batch queue.
+	 *
+	 * @param deltas The block [rows][size] of output deltas.
+	 */
+	public void pushBackward(double[][] deltas) {
+		for (double[] row : deltas) {
+			if (row.length != size) throw new IllegalArgumentException("Invalid output deltas size");
+		}
+		backwardBatchQueue.addFirst(deltas);
+	}
+	/**
+	 * Push a forward block of values, adding it at the beginning of the forward batch queue.
+	 *
+	 * @param values The block [rows][size] of input values.
+	 */
+	public void pushForward(double[][] values) {
+		for (double[] row : values) {
+			if (row.length != size) throw new IllegalArgumentException("Invalid input values size");
+		}
+		forwardBatchQueue.addFirst(values);
+	}
 
 	/**
 	 * Return the size of the input and output vectors.
@@ -187,13 +404,13 @@ public class Edge {
 	 *
 	 * @return The current size of the forward queue.
 	 */
-	public int sizeForwardQueue() { return forwardQueue.size(); }
+	public int sizeForwardQueue() { return forwardRing != null ? forwardRing.size() : forwardQueue.size(); }
 	/**
 	 * Return the current size of the backward queue.
 	 *
 	 * @return The current size of the backward queue.
 	 */
-	public int sizeBackwardQueue() { return backwardQueue.size(); }
+	public int sizeBackwardQueue() { return backwardRing != null ? backwardRing.size() : backwardQueue.size(); }
 
 	/**
 	 * Unfold the internal queues. Some network processes, like batch back propagation or
@@ -201,11 +418,24 @@ public class Edge {
 	 * backward in a series of calls to <i>backward()</i> to every node, and <i>unfold()</i> to
 	 * every node and edge.
 	 * <p>
-	 * The calls to <i>backward()</i> or <i>unfold()</i> are managed by the network.
+	 * The calls to <i>backward()</i> or <i>unfold()</i> are managed by the network. The backward
+	 * deltas of a recurrent edge are kept until the forward queue is empty.
 	 */
 	public void unfold() {
+		if (backwardRing != null) backwardRing.pop();
 		if (!backwardQueue.isEmpty()) backwardQueue.removeFirst();
+		if (!backwardBatchQueue.isEmpty()) backwardBatchQueue.removeFirst();
+		if (!rewound) popForward();
+		rewound = false;
+		if (recurrent && sizeForwardQueue() == 0) carrying = false;
+	}
+	/**
+	 * Pop the forward values.
+	 */
+	private void popForward() {
+		if (forwardRing != null) forwardRing.pop();
 		if (!forwardQueue.isEmpty()) forwardQueue.removeFirst();
+		if (!forwardBatchQueue.isEmpty()) forwardBatchQueue.removeFirst();
 	}
 
 	/**
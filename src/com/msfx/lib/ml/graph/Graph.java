@@ -24,6 +24,7 @@ import java.util.List;
 import com.msfx.lib.ml.function.Activation;
 import com.msfx.lib.ml.graph.nodes.ActivationNode;
 import com.msfx.lib.ml.graph.nodes.BiasNode;
+import com.msfx.lib.ml.graph.nodes.SoftMaxCrossEntropyNode;
 import com.msfx.lib.ml.graph.nodes.WeightsNode;
 
 /**
@@ -204,4 +205,36 @@ public class Graph {
 		return cell;
 	}
 
+	/**
+	 * Creates a soft-max output cell trained with the cross-entropy loss, with weights and bias.
+	 * 
+	 * @param inputSize  Input size.
+	 * @param outputSize Output size, the number of classes.
+	 * @return The cell.
+	 */
+	public static Cell softMax(int inputSize, int outputSize) {
+
+		Cell cell = new Cell("SMCE-" + inputSize + "-" + outputSize);
+
+		/* Weights node. Connect an input edge. */
+		WeightsNode weightsNode = new WeightsNode(inputSize, outputSize);
+		connect(inputSize, null, weightsNode);
+		cell.putNode(weightsNode);
+
+		/* Soft-max node. */
+		SoftMaxCrossEntropyNode softMaxNode = new SoftMaxCrossEntropyNode();
+		cell.putNode(softMaxNode);
+		connect(outputSize, weightsNode, softMaxNode);
+
+		/* Bias node. */
+		BiasNode biasNode = new BiasNode(outputSize);
+		connect(outputSize, biasNode, softMaxNode);
+		cell.putNode(biasNode);
+
+		/* Output edge. */
+		connect(outputSize, softMaxNode, null);
+
+		return cell;
+	}
+
 }
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.graph;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The buffers of a forward only pass of a network, created by <i>Network.createContext()</i>.
+ * Keeping all the transient values in the context lets any number of threads share the same
+ * network and weights, each with its own context, and reusing a context makes the pass allocation
+ * free. A context must be used by one thread at a time, and is valid while the network is not
+ * compiled again.
+ *
+ * @author Miquel Sas
+ */
+public final class InferenceContext {
+
+	/** The plan that created the context. */
+	final InferencePlan plan;
+	/** Output values by node slot. */
+	final double[][] values;
+	/** Input values by step. */
+	final double[][][] inputs;
+	/** Unmodifiable list of output values, views of the buffers. */
+	final List<double[]> outputList;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param plan    The plan.
+	 * @param values  The output values by node slot.
+	 * @param inputs  The input values by step.
+	 * @param outputs The output values by output edge.
+	 */
+	InferenceContext(InferencePlan plan, double[][] values, double[][][] inputs, double[][] outputs) {
+		this.plan = plan;
+		this.values = values;
+		this.inputs = inputs;
+		this.outputList = Collections.unmodifiableList(Arrays.asList(outputs));
+	}
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.graph;
+
+import com.msfx.lib.ml.graph.nodes.ActivationNode;
+import com.msfx.lib.ml.graph.nodes.BiasNode;
+import com.msfx.lib.ml.graph.nodes.SoftMaxCrossEntropyNode;
+import com.msfx.lib.ml.graph.nodes.WeightsNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * An immutable forward only plan of a network, built from the execution plan. It does not use the
+ * edges nor the state of the nodes, all the values of a pass are kept in a context, thus it can be
+ * executed concurrently by any number of threads, each with its own context. Contexts can be
+ * created and owned by the caller, or borrowed from a lock-free pool that grows up to the maximum
+ * number of concurrent calls.
+ * <p>
+ * Weights and bias nodes that only feed an activation or soft-max node are fused into a single
+ * step, accumulating directly into the triggers of the activation. Nodes that do not contribute
+ * to the outputs are dropped. Edges whose values are produced later in the forward order, like
+ * recurrent edges, read zeros, that is, each call starts from an empty state.
+ *
+ * @author Miquel Sas
+ */
+final class InferencePlan {
+
+	/** Source of an edge that reads zeros. */
+	private static final int ZERO = Integer.MIN_VALUE;
+
+	/**
+	 * A step, a node with its fused weights and bias nodes.
+	 */
+	private static final class Step {
+		/** The node. */
+		private final Node node;
+		/** Slot of the output values. */
+		private final int slot;
+		/** Sources of the input edges not fused, a slot, an input or zero. */
+		private final int[] sources;
+		/** Vectors of zeros for zero sources. */
+		private final double[][] zeros;
+		/** Fused weights nodes. */
+		private final WeightsNode[] weights;
+		/** Sources of the inputs of the fused weights nodes. */
+		private final int[] weightsSources;
+		/** Vectors of zeros for zero sources of the fused weights nodes. */
+		private final double[][] weightsZeros;
+		/** Values of the fused bias nodes. */
+		private final double[][] biases;
+		/** Constructor. */
+		private Step(Node node, int slot, List<Edge> edges, List<WeightsNode> weights, List<double[]> biases, Sources sources) {
+			this.node = node;
+			this.slot = slot;
+			this.sources = new int[edges.size()];
+			this.zeros = new double[edges.size()][];
+			for (int i = 0; i < edges.size(); i++) {
+				this.sources[i] = sources.get(edges.get(i), node);
+				if (this.sources[i] == ZERO) this.zeros[i] = new double[edges.get(i).size()];
+			}
+			this.weights = weights.toArray(new WeightsNode[weights.size()]);
+			this.weightsSources = new int[weights.size()];
+			this.weightsZeros = new double[weights.size()][];
+			for (int i = 0; i < weights.size(); i++) {
+				Edge edge = weights.get(i).getInputEdge(0);
+				this.weightsSources[i] = sources.get(edge, weights.get(i));
+				if (this.weightsSources[i] == ZERO) this.weightsZeros[i] = new double[edge.size()];
+			}
+			this.biases = biases.toArray(new double[biases.size()][]);
+		}
+		/** Check whether the step is fused. */
+		private boolean isFused() { return weights.length > 0 || biases.length > 0; }
+	}
+
+	/**
+	 * Resolves the source of the values of an edge read by a node.
+	 */
+	private static final class Sources {
+		/** Slots of nodes in forward order. */
+		private final Map<Node, Integer> slots;
+		/** Indexes of the input edges. */
+		private final Map<Edge, Integer> inputs;
+		/** Constructor. */
+		private Sources(Map<Node, Integer> slots, Map<Edge, Integer> inputs) {
+			this.slots = slots;
+			this.inputs = inputs;
+		}
+		/** Return the source of the edge read by the node. */
+		private int get(Edge edge, Node reader) {
+			Integer input = inputs.get(edge);
+			if (input != null) return -(input + 1);
+			Integer slot = (edge.getInputNode() == null ? null : slots.get(edge.getInputNode()));
+			Integer readerSlot = slots.get(reader);
+			if (slot == null || readerSlot == null || slot >= readerSlot) return ZERO;
+			return slot;
+		}
+	}
+
+	/** Steps in forward order. */
+	private final Step[] steps;
+	/** Sizes of the slots. */
+	private final int[] slotSizes;
+	/** Sources of the output edges. */
+	private final int[] outputSources;
+	/** Sizes of the input edges. */
+	private final int[] inputSizes;
+	/** Sizes of the output edges. */
+	private final int[] outputSizes;
+	/** Lock-free pool of contexts. */
+	private final Queue<InferenceContext> pool = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param plan The execution plan.
+	 */
+	InferencePlan(Plan plan) {
+
+		/* Slots of nodes and indexes of inputs. */
+		Map<Node, Integer> slots = new HashMap<>();
+		slotSizes = new int[plan.nodes.length];
+		for (int i = 0; i < plan.nodes.length; i++) {
+			Node node = plan.nodes[i];
+			slots.put(node, i);
+			slotSizes[i] = (node.getOutputEdgeCount() > 0 ? node.getOutputEdge(0).size() : 0);
+		}
+		Map<Edge, Integer> inputs = new HashMap<>();
+		inputSizes = new int[plan.inputSlots.length];
+		for (int i = 0; i < plan.inputSlots.length; i++) {
+			inputs.put(plan.edges[plan.inputSlots[i]], i);
+			inputSizes[i] = plan.edges[plan.inputSlots[i]].size();
+		}
+		Sources sources = new Sources(slots, inputs);
+
+		/* Output sources. */
+		outputSources = new int[plan.outputSlots.length];
+		outputSizes = new int[plan.outputSlots.length];
+		for (int i = 0; i < plan.outputSlots.length; i++) {
+			Edge edge = plan.edges[plan.outputSlots[i]];
+			Integer slot = (edge.getInputNode() == null ? null : slots.get(edge.getInputNode()));
+			outputSources[i] = (slot == null ? ZERO : slot);
+			outputSizes[i] = edge.size();
+		}
+
+		/* Nodes fused into the activations that read them. */
+		Map<Node, Node> fused = new HashMap<>();
+		for (Node node : plan.nodes) {
+			if (!isSum(node)) continue;
+			for (int i = 0; i < node.getInputEdgeCount(); i++) {
+				Edge edge = node.getInputEdge(i);
+				if (sources.get(edge, node) < 0) continue;
+				Node input = edge.getInputNode();
+				if (input.getOutputEdgeCount() != 1) continue;
+				if (input instanceof WeightsNode || input instanceof BiasNode) fused.put(input, node);
+			}
+		}
+
+		/* Live nodes, from the outputs backward. */
+		boolean[] live = new boolean[plan.nodes.length];
+		for (int source : outputSources) {
+			if (source >= 0) live[source] = true;
+		}
+		for (int i = plan.nodes.length - 1; i >= 0; i--) {
+			Node node = plan.nodes[i];
+			if (!live[i]) continue;
+			for (int j = 0; j < node.getInputEdgeCount(); j++) {
+				int source = sources.get(node.getInputEdge(j), node);
+				if (source >= 0) live[source] = true;
+			}
+		}
+
+		/* Steps. */
+		List<Step> stepList = new ArrayList<>();
+		for (int i = 0; i < plan.nodes.length; i++) {
+			Node node = plan.nodes[i];
+			if (!live[i] || fused.containsKey(node)) continue;
+			List<Edge> edges = new ArrayList<>();
+			List<WeightsNode> weights = new ArrayList<>();
+			List<double[]> biases = new ArrayList<>();
+			for (int j = 0; j < node.getInputEdgeCount(); j++) {
+				Edge edge = node.getInputEdge(j);
+				Node input = edge.getInputNode();
+				if (input != null && fused.get(input) == node) {
+					if (input instanceof WeightsNode w) weights.add(w);
+					if (input instanceof BiasNode b) biases.add(b.getParameters());
+				} else {
+					edges.add(edge);
+				}
+			}
+			stepList.add(new Step(node, i, edges, weights, biases, sources));
+		}
+		steps = stepList.toArray(new Step[stepList.size()]);
+	}
+
+	/**
+	 * Check whether the node sums its inputs before applying a function, thus weights and bias
+	 * nodes can accumulate directly into its triggers.
+	 *
+	 * @param node The node.
+	 * @return A boolean.
+	 */
+	private static boolean isSum(Node node) {
+		return node instanceof ActivationNode || node instanceof SoftMaxCrossEntropyNode;
+	}
+
+	/**
+	 * Create a new context with the buffers of a forward pass.
+	 *
+	 * @return The context.
+	 */
+	InferenceContext createContext() {
+		double[][] values = new double[slotSizes.length][];
+		double[][][] inputs = new double[steps.length][][];
+		for (int i = 0; i < steps.length; i++) {
+			Step step = steps[i];
+			values[step.slot] = new double[slotSizes[step.slot]];
+			inputs[i] = new double[step.isFused() ? 1 : step.sources.length][];
+		}
+		double[][] outputs = new double[outputSources.length][];
+		for (int i = 0; i < outputSources.length; i++) {
+			int source = outputSources[i];
+			outputs[i] = (source == ZERO ? new double[outputSizes[i]] : values[source]);
+		}
+		return new InferenceContext(this, values, inputs, outputs);
+	}
+	/**
+	 * Borrow a context from the pool, or create one if the pool is empty.
+	 *
+	 * @return The context.
+	 */
+	InferenceContext borrowContext() {
+		InferenceContext context = pool.poll();
+		return (context != null ? context : createContext());
+	}
+	/**
+	 * Return a borrowed context to the pool.
+	 *
+	 * @param context The context.
+	 */
+	void returnContext(InferenceContext context) { pool.offer(context); }
+
+	/**
+	 * Forward the input values using the buffers of the context, and return the output values,
+	 * that are the buffers of the context.
+	 *
+	 * @param inputValues The list of input values, in the order of the input edges.
+	 * @param context     The context, used by one thread at a time.
+	 * @return The list of output values, in the order of the output edges.
+	 */
+	List<double[]> predict(List<double[]> inputValues, InferenceContext context) {
+		if (context.plan != this) throw new IllegalArgumentException("Context of another plan");
+		if (inputValues.size() != inputSizes.length) throw new IllegalArgumentException("Sizes do not match.");
+		for (int i = 0; i < inputSizes.length; i++) {
+			if (inputValues.get(i).length != inputSizes[i]) {
+				throw new IllegalArgumentException("Invalid input values size");
+			}
+		}
+
+		double[][] values = context.values;
+		for (int s = 0; s < steps.length; s++) {
+			Step step = steps[s];
+			double[] output = values[step.slot];
+			double[][] inputs = context.inputs[s];
+			if (step.isFused()) {
+				Arrays.fill(output, 0);
+				for (int i = 0; i < step.weights.length; i++) {
+					double[] input = read(step.weightsSources[i], step.weightsZeros[i], inputValues, values);
+					step.weights[i].accumulate(input, output);
+				}
+				for (double[] bias : step.biases) {
+					add(bias, output);
+				}
+				for (int i = 0; i < step.sources.length; i++) {
+					if (step.sources[i] != ZERO) add(read(step.sources[i], null, inputValues, values), output);
+				}
+				inputs[0] = output;
+			} else {
+				for (int i = 0; i < inputs.length; i++) {
+					inputs[i] = read(step.sources[i], step.zeros[i], inputValues, values);
+				}
+			}
+			step.node.forward(inputs, output);
+		}
+
+		/* Release references to the caller input values. */
+		for (double[][] inputs : context.inputs) {
+			Arrays.fill(inputs, null);
+		}
+		return context.outputList;
+	}
+
+	/**
+	 * Return the values of a source.
+	 *
+	 * @param source      The source.
+	 * @param zeros       The vector of zeros.
+	 * @param inputValues The input values.
+	 * @param values      The values of the slots.
+	 * @return The values.
+	 */
+	private static double[] read(int source, double[] zeros, List<double[]> inputValues, double[][] values) {
+		if (source == ZERO) return zeros;
+		if (source < 0) return inputValues.get(-source - 1);
+		return values[source];
+	}
+	/**
+	 * Add the values to the output.
+	 *
+	 * @param values The values.
+	 * @param output The output.
+	 */
+	private static void add(double[] values, double[] output) {
+		for (int n = 0; n < output.length; n++) {
+			output[n] += values[n];
+		}
+	}
+
+	/**
+	 * Return the number of steps.
+	 *
+	 * @return The number of steps.
+	 */
+	int getStepCount() { return steps.length; }
+}
@@ -19,7 +19,10 @@ package com.msfx.lib.ml.graph;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -28,9 +31,13 @@ import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ForkJoinPool;
 
+import com.msfx.lib.ml.function.Optimizer;
+import com.msfx.lib.ml.function.optimizer.SGD;
 import com.msfx.lib.ml.graph.nodes.ActivationNode;
 import com.msfx.lib.ml.graph.nodes.BiasNode;
+import com.msfx.lib.ml.graph.nodes.SoftMaxCrossEntropyNode;
 import com.msfx.lib.ml.graph.nodes.WeightsNode;
+import com.msfx.lib.task.ExecPool;
 import com.msfx.lib.util.json.JSONArray;
 import com.msfx.lib.util.json.JSONObject;
 
@@ -45,6 +52,38 @@ import com.msfx.lib.util.json.JSONObject;
  */
 public class Network {
 
+	/** Process-wide default compute pool, created on demand. */
+	private static volatile ForkJoinPool defaultPool;
+
+	/**
+	 * Return the process-wide default compute pool, used by the networks that process in parallel
+	 * without an injected pool. Unless set, it is created on demand with one thread per available
+	 * processor, and never shut down.
+	 * @return The default pool.
+	 */
+	public static ForkJoinPool getDefaultPool() {
+		ForkJoinPool pool = defaultPool;
+		if (pool == null) {
+			synchronized (Network.class) {
+				pool = defaultPool;
+				if (pool == null) {
+					pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+					defaultPool = pool;
+				}
+			}
+		}
+		return pool;
+	}
+	/**
+	 * Set the process-wide default compute pool. Networks already processing in parallel keep the
+	 * previous pool until their parallel settings change.
+	 * @param pool The pool.
+	 */
+	public static void setDefaultPool(ForkJoinPool pool) {
+		if (pool == null) throw new NullPointerException("Null pool");
+		defaultPool = pool;
+	}
+
 	/** Master map with all cells in this network. */
 	private final Map<Cell, Cell> cells = new HashMap<>();
 
@@ -54,11 +93,47 @@ public class Network {
 	private List<Edge> outputEdges;
 	/** List of layers in forward order. */
 	private List<List<Node>> layers;
+	/** Compiled execution plan. */
+	private Plan plan;
+	/** Forward only plan of the predictions, built on demand. */
+	private volatile InferencePlan inferencePlan;
+	/** A boolean that indicates whether the network is frozen for inference. */
+	private boolean frozen = false;
 	/** Map with all edges in the network. */
 	private Map<Edge, Edge> edges;
 
-	/** Pool used in concurrent executions. */
+	/** Pool used in concurrent executions, while parallel. */
 	private ForkJoinPool pool;
+	/** Injected pool, or null to use the default pool. */
+	private ForkJoinPool injectedPool;
+	/** Maximum number of threads that work on a node, zero for no limit. */
+	private int parallelism = 0;
+	/** Splitter of the ranges of nodes processed in parallel. */
+	private RangeSplitter splitter;
+	/** Minimum work of a parallel task in multiply-adds, zero for the default. */
+	private int parallelGrain = 0;
+	/** Work below which nodes process their data serially, in multiply-adds. */
+	private int serialThreshold = RangeSplitter.DEFAULT_SERIAL_THRESHOLD;
+	/** A boolean that indicates whether nodes process their data in parallel. */
+	private boolean parallelProcessing;
+	/** A boolean that indicates whether the nodes of a layer are executed concurrently. */
+	private boolean parallelLayers;
+
+	/** Number of rows of the batch currently processed. */
+	private int batchSize;
+	/** Depth of the edge rings, zero to use unbounded deques. */
+	private int queueDepth = 0;
+	/** Storage precision of the parameters. */
+	private Precision precision = Precision.DOUBLE;
+	/** A boolean that indicates whether the weights are mapped read-only from a checkpoint file. */
+	private boolean mapped = false;
+
+	/** The optimizer that applies the gradients, stochastic gradient descent by default. */
+	private Optimizer optimizer = new SGD();
+	/** Number of backward passes accumulated per update pass. */
+	private int accumulationSteps = 1;
+	/** Number of backward passes accumulated since the last update pass. */
+	private int pendingSteps = 0;
 
 	/**
 	 * Constructor.
@@ -93,26 +168,72 @@ public class Network {
 	 */
 	public void backward(List<double[]> outputDeltasList) {
 
-		/* Validate initialized and sizes. */
-		checkInitialized();
-		checkSizes(outputDeltasList.size(), outputEdges.size());
+		/* Validate initialized, trainable and sizes. */
+		Plan plan = checkCompiled();
+		checkTrainable();
+		checkSizes(outputDeltasList.size(), plan.outputSlots.length);
 
 		/* Push backward output deltas. */
-		for (int i = 0; i < outputDeltasList.size(); i++) {
-			double[] outputDeltas = outputDeltasList.get(i);
-			outputEdges.get(i).pushBackward(outputDeltas);
+		for (int i = 0; i < plan.outputSlots.length; i++) {
+			plan.edges[plan.outputSlots[i]].pushBackward(outputDeltasList.get(i));
 		}
 
-		/* Push backward layers. */
-		for (int i = layers.size() - 1; i >= 0; i--) {
-			List<Node> nodes = layers.get(i);
-			for (Node node : nodes) {
-				node.backward();
-			}
+		/* Rewind recurrent edges and push backward layers. */
+		plan.rewind();
+		ForkJoinPool layersPool = (parallelLayers ? pool : null);
+		for (int i = plan.getLayerCount() - 1; i >= 0; i--) {
+			plan.execute(Plan.BACKWARD, i, layersPool);
+		}
+
+		/* Update and unfold. */
+		if (++pendingSteps >= accumulationSteps) update();
+		plan.unfold();
+	}
+
+	/**
+	 * Launch the backward pass of a batch. Gradients are accumulated across the batch and applied
+	 * once, averaged.
+	 * @param outputDeltas Batch with the blocks of output deltas, in the same order as the list of
+	 *                     output edges.
+	 */
+	public void backward(Batch outputDeltas) {
+
+		/* Validate initialized, trainable and sizes. */
+		Plan plan = checkCompiled();
+		checkTrainable();
+		checkSizes(outputDeltas.getBlockCount(), plan.outputSlots.length);
+
+		/* Push backward output deltas. */
+		batchSize = outputDeltas.size();
+		for (int i = 0; i < plan.outputSlots.length; i++) {
+			plan.edges[plan.outputSlots[i]].pushBackward(outputDeltas.get(i));
 		}
 
-		/* Unfold. */
-		unfold();
+		/* Rewind recurrent edges and push backward layers. */
+		plan.rewind();
+		ForkJoinPool layersPool = (parallelLayers ? pool : null);
+		for (int i = plan.getLayerCount() - 1; i >= 0; i--) {
+			plan.execute(Plan.BACKWARD_BATCH, i, layersPool);
+		}
+
+		/* Update and unfold. */
+		if (++pendingSteps >= accumulationSteps) update();
+		plan.unfold();
+	}
+
+	/**
+	 * Launch the update pass, that applies the gradients accumulated by the backward passes with the
+	 * optimizer, and counts a step of the optimizer. Called by <i>backward()</i> every
+	 * <i>accumulationSteps</i> passes.
+	 */
+	public void update() {
+		Plan plan = checkCompiled();
+		checkTrainable();
+		for (Node node : plan.nodes) {
+			node.update(optimizer);
+		}
+		optimizer.step();
+		pendingSteps = 0;
 	}
 
 	/**
@@ -124,23 +245,136 @@ public class Network {
 	public void forward(List<double[]> inputValuesList) {
 
 		/* Validate initialized and sizes. */
-		checkInitialized();
-		checkSizes(inputValuesList.size(), inputEdges.size());
+		Plan plan = checkCompiled();
+		checkSizes(inputValuesList.size(), plan.inputSlots.length);
 
 		/* Push forward input values. */
-		for (int i = 0; i < inputValuesList.size(); i++) {
-			double[] inputValues = inputValuesList.get(i);
-			inputEdges.get(i).pushForward(inputValues);
+		for (int i = 0; i < plan.inputSlots.length; i++) {
+			plan.edges[plan.inputSlots[i]].pushForward(inputValuesList.get(i));
 		}
 
 		/* Push forward layers. */
-		for (int i = 0; i < layers.size(); i++) {
-			List<Node> nodes = layers.get(i);
-			for (Node node : nodes) {
-				node.forward();
+		ForkJoinPool layersPool = (parallelLayers ? pool : null);
+		for (int i = 0; i < plan.getLayerCount(); i++) {
+			plan.execute(Plan.FORWARD, i, layersPool);
+		}
+	}
+
+	/**
+	 * Launch the forward pass of a batch.
+	 *
+	 * @param inputValues Batch with the blocks of input values, in the same order as the list of
+	 *                    input edges.
+	 */
+	public void forward(Batch inputValues) {
+
+		/* Validate initialized and sizes. */
+		Plan plan = checkCompiled();
+		checkSizes(inputValues.getBlockCount(), plan.inputSlots.length);
+
+		/* Push forward input values. */
+		batchSize = inputValues.size();
+		for (int i = 0; i < plan.inputSlots.length; i++) {
+			plan.edges[plan.inputSlots[i]].pushForward(inputValues.get(i));
+		}
+
+		/* Push forward layers. */
+		ForkJoinPool layersPool = (parallelLayers ? pool : null);
+		for (int i = 0; i < plan.getLayerCount(); i++) {
+			plan.execute(Plan.FORWARD_BATCH, i, layersPool);
+		}
+	}
+
+	/**
+	 * Freeze the network for inference. Gradients, backward buffers and backward queues are
+	 * released, and the forward only plan of the predictions is built. The network can not be
+	 * trained any more, a copy can.
+	 */
+	public void freeze() {
+		Plan plan = checkCompiled();
+		for (Node node : plan.nodes) {
+			node.freeze();
+		}
+		for (Edge edge : plan.edges) {
+			edge.freeze();
+		}
+		frozen = true;
+		getInferencePlan();
+	}
+	/**
+	 * Check whether the network is frozen for inference.
+	 * @return A boolean.
+	 */
+	public boolean isFrozen() { return frozen; }
+
+	/**
+	 * Return the forward only plan of the predictions, building it if necessary. Weights and bias
+	 * nodes are fused into the activations that read them.
+	 * @return The inference plan.
+	 */
+	private InferencePlan getInferencePlan() {
+		InferencePlan inference = inferencePlan;
+		if (inference == null) {
+			synchronized (this) {
+				inference = inferencePlan;
+				if (inference == null) {
+					inference = new InferencePlan(checkCompiled());
+					inferencePlan = inference;
+				}
+			}
+		}
+		return inference;
+	}
+	/**
+	 * Create a context with the buffers of a prediction, to be reused by one thread at a time in
+	 * calls to <i>predict(List, InferenceContext)</i>. The context is valid while the network is not
+	 * compiled again.
+	 * @return The context.
+	 */
+	public InferenceContext createContext() { return getInferencePlan().createContext(); }
+	/**
+	 * Forward the input values with a forward only plan and return a copy of the output values.
+	 * Edges and nodes are not used nor changed, all the values of the pass are kept in a context
+	 * borrowed from a lock-free pool, thus any number of threads can call it concurrently without
+	 * locking, frozen or not, as long as the network is not being trained at the same time.
+	 * Recurrent edges read zeros, and the parallel settings are ignored.
+	 * @param inputValuesList List of arrays of input values, in the same order as the list of input
+	 *                        edges.
+	 * @return The list of output values, in the same order as the list of output edges.
+	 */
+	public List<double[]> predict(List<double[]> inputValuesList) {
+		InferencePlan inference = getInferencePlan();
+		InferenceContext context = inference.borrowContext();
+		try {
+			List<double[]> outputValues = inference.predict(inputValuesList, context);
+			List<double[]> copies = new ArrayList<>(outputValues.size());
+			for (double[] values : outputValues) {
+				copies.add(values.clone());
 			}
+			return copies;
+		} finally {
+			inference.returnContext(context);
 		}
 	}
+	/**
+	 * Forward the input values with a forward only plan using the buffers of the context, without
+	 * allocating. The returned output values are the buffers of the context, overwritten by the
+	 * next call with the same context.
+	 * @param inputValuesList List of arrays of input values, in the same order as the list of input
+	 *                        edges.
+	 * @param context         The context, created by this network and used by one thread at a
+	 *                        time.
+	 * @return The list of output values, in the same order as the list of output edges.
+	 */
+	public List<double[]> predict(List<double[]> inputValuesList, InferenceContext context) {
+		return getInferencePlan().predict(inputValuesList, context);
+	}
+
+	/**
+	 * Return the number of rows of the batch currently processed.
+	 * @return The batch size.
+	 */
+	public int getBatchSize() { return batchSize; }
 
 	/**
 	 * Return the list of input edges.
@@ -178,13 +412,27 @@ public class Network {
 	 * @return The list of output values.
 	 */
 	public List<double[]> getOutputValues() {
-		List<double[]> outputValues = new ArrayList<>();
-		for (Edge edge : outputEdges) {
-			outputValues.add(edge.getForwardValues());
+		Plan plan = checkCompiled();
+		List<double[]> outputValues = new ArrayList<>(plan.outputSlots.length);
+		for (int slot : plan.outputSlots) {
+			outputValues.add(plan.edges[slot].getForwardValues());
 		}
 		return outputValues;
 	}
 
+	/**
+	 * Returns the batch of output values of the network, normally required after a
+	 * forward(Batch) call.
+	 * @return The batch of output values.
+	 */
+	public Batch getOutputBatch() {
+		List<double[][]> blocks = new ArrayList<>();
+		for (Edge edge : outputEdges) {
+			blocks.add(edge.getForwardBatch(batchSize));
+		}
+		return new Batch(blocks);
+	}
+
 	/**
 	 * Return a collection with all network nodes.
 	 * @return The collection of nodes.
@@ -265,13 +513,113 @@ public class Network {
 				}
 			}
 		}
+
+		/* Allocate edge rings if so configured. */
+		for (Edge edge : edges.values()) {
+			edge.allocateRings(queueDepth);
+		}
+
+		/* Compile the execution plan. */
+		compile();
+	}
+
+	/**
+	 * Compile the network into an immutable flat execution plan, used by the forward and backward
+	 * passes. Called by <i>initialize()</i>, and to be called again if the network is rewired.
+	 * @return The plan.
+	 */
+	public Plan compile() {
+		checkInitialized();
+		plan = new Plan(layers, inputEdges, outputEdges, new ArrayList<>(edges.values()));
+		inferencePlan = null;
+		return plan;
+	}
+
+	/**
+	 * Set the depth of the fixed rings of reusable buffers that edges use as forward and backward
+	 * queues, or zero to use unbounded deques. Rings are allocated in <i>initialize()</i>, so that
+	 * the steady-state forward and backward passes do not allocate edge data.
+	 * <p>
+	 * One forward and one backward pass per pattern need a depth of one, while processes that
+	 * forward several steps before going backward need a depth of at least the number of steps,
+	 * plus one when the network has recurrent edges, that also keep the state before the first
+	 * step. Exceeding the depth throws an <i>IllegalStateException</i>.
+	 * @param queueDepth The depth, zero for unbounded deques.
+	 */
+	public void setQueueDepth(int queueDepth) {
+		if (queueDepth < 0) throw new IllegalArgumentException("Invalid queue depth " + queueDepth);
+		this.queueDepth = queueDepth;
+	}
+	/**
+	 * Return the depth of the edge rings, zero if edges use unbounded deques.
+	 * @return The queue depth.
+	 */
+	public int getQueueDepth() { return queueDepth; }
+
+	/**
+	 * Set the storage precision of the parameters, converting the parameters of all the nodes.
+	 * Float precision halves the memory of weights and is inference only, the backward pass throws
+	 * an exception. A network trained or restored in double precision can be converted to float
+	 * after restore, and back to double with zero gradients.
+	 * @param precision The precision.
+	 */
+	public void setPrecision(Precision precision) {
+		if (precision == null) throw new NullPointerException();
+		for (Node node : getNodes()) {
+			node.setPrecision(precision);
+		}
+		this.precision = precision;
+		/* Float conversion copies mapped weights to the heap. */
+		if (precision == Precision.FLOAT) mapped = false;
+	}
+	/**
+	 * Return the optimizer.
+	 * @return The optimizer.
+	 */
+	public Optimizer getOptimizer() { return optimizer; }
+	/**
+	 * Set the optimizer. The state of the previous optimizer is discarded.
+	 * @param optimizer The optimizer.
+	 */
+	public void setOptimizer(Optimizer optimizer) {
+		if (optimizer == null) throw new NullPointerException("Null optimizer");
+		this.optimizer = optimizer;
 	}
+	/**
+	 * Set the number of backward passes whose gradients are accumulated and averaged before each
+	 * update pass, one by default.
+	 * @param accumulationSteps The number of backward passes.
+	 */
+	public void setAccumulationSteps(int accumulationSteps) {
+		if (accumulationSteps < 1) throw new IllegalArgumentException("Invalid accumulation steps " + accumulationSteps);
+		this.accumulationSteps = accumulationSteps;
+	}
+	/**
+	 * Return the number of backward passes accumulated per update pass.
+	 * @return The number of backward passes.
+	 */
+	public int getAccumulationSteps() { return accumulationSteps; }
 
 	/**
-	 * Terminate the network usage and free resources.
+	 * Return the storage precision of the parameters.
+	 * @return The precision.
+	 */
+	public Precision getPrecision() { return precision; }
+	/**
+	 * Check whether the weights are mapped read-only from a checkpoint file.
+	 * @return A boolean.
+	 */
+	public boolean isMapped() { return mapped; }
+
+	/**
+	 * Terminate the network usage and free resources. Parallel processing is disabled, and the pool
+	 * is released but not shut down, since other networks may use it.
 	 */
 	public void terminate() {
-		if (pool != null) pool.shutdown();
+		pool = null;
+		splitter = null;
+		parallelProcessing = false;
+		parallelLayers = false;
 	}
 
 	/**
@@ -279,19 +627,103 @@ public class Network {
 	 * @param parallel A boolean.
 	 */
 	public void setParallelProcessing(boolean parallel) {
-		if (pool != null) pool.shutdown();
-		if (parallel) {
-			pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors() * 2);
-		} else {
-			pool = null;
+		parallelProcessing = parallel;
+		updatePool();
+	}
+	/**
+	 * Indicate that the nodes within a layer should be executed concurrently, with one barrier per
+	 * layer. Only layers whose nodes are not connected between them are executed concurrently.
+	 * @param parallel A boolean.
+	 */
+	public void setParallelLayers(boolean parallel) {
+		parallelLayers = parallel;
+		updatePool();
+	}
+	/**
+	 * Set the pool used to process in parallel, instead of the default pool. The pool is not owned
+	 * by the network, and is not shut down.
+	 * @param pool The pool, or null to use the default pool.
+	 */
+	public void setPool(ForkJoinPool pool) {
+		injectedPool = pool;
+		updatePool();
+	}
+	/**
+	 * Set the pool used to process in parallel, sharing the threads of an execution pool.
+	 * @param pool The execution pool, or null to use the default pool.
+	 */
+	public void setPool(ExecPool pool) { setPool(pool == null ? null : pool.getPool()); }
+	/**
+	 * Set the maximum number of threads of the pool that work on a node at the same time, to share
+	 * a pool among many networks without oversubscription.
+	 * @param parallelism The maximum number of threads, zero for no limit.
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 0) throw new IllegalArgumentException("Invalid parallelism " + parallelism);
+		this.parallelism = parallelism;
+		updatePool();
+	}
+	/**
+	 * Return the maximum number of threads of the pool that work on a node at the same time.
+	 * @return The parallelism, zero for no limit.
+	 */
+	public int getParallelism() { return parallelism; }
+	/**
+	 * Set the minimum work of the tasks in which nodes split their data when processing in
+	 * parallel, in multiply-adds.
+	 * @param grain The grain, zero for the default.
+	 */
+	public void setParallelGrain(int grain) {
+		if (grain < 0) throw new IllegalArgumentException("Invalid grain " + grain);
+		parallelGrain = grain;
+		updatePool();
+	}
+	/**
+	 * Set the work, in multiply-adds, below which nodes process their data serially even when
+	 * processing in parallel.
+	 * @param threshold The threshold.
+	 */
+	public void setSerialThreshold(int threshold) {
+		if (threshold < 0) throw new IllegalArgumentException("Invalid serial threshold " + threshold);
+		serialThreshold = threshold;
+		updatePool();
+	}
+	/**
+	 * Use or release the injected or default pool depending on the parallel settings, and build
+	 * the splitter.
+	 */
+	private void updatePool() {
+		boolean required = (parallelProcessing || parallelLayers);
+		pool = (required ? (injectedPool != null ? injectedPool : getDefaultPool()) : null);
+		int grain = (parallelGrain > 0 ? parallelGrain : RangeSplitter.DEFAULT_GRAIN);
+		splitter = (required ? new RangeSplitter(pool, grain, serialThreshold, parallelism) : null);
+	}
+	/**
+	 * Execute a task over a range of indexes of a node, split among the threads of the pool when
+	 * processing in parallel and the work is large enough, serially otherwise.
+	 * @param count The number of indexes.
+	 * @param cost  The work of each index, in multiply-adds.
+	 * @param task  The task.
+	 */
+	public void execute(int count, int cost, RangeSplitter.RangeTask task) {
+		RangeSplitter splitter = this.splitter;
+		if (!parallelProcessing || splitter == null) {
+			if (count > 0) task.execute(0, count - 1);
+			return;
 		}
+		splitter.execute(count, cost, task);
 	}
 
 	/**
 	 * Check whether parallel processing should be done when possible.
 	 * @return A boolean.
 	 */
-	public boolean isParallelProcessing() { return pool != null; }
+	public boolean isParallelProcessing() { return parallelProcessing; }
+	/**
+	 * Check whether the nodes within a layer are executed concurrently.
+	 * @return A boolean.
+	 */
+	public boolean isParallelLayers() { return parallelLayers; }
 	/**
 	 * Return the parallel pool.
 	 * @return The pool.
@@ -301,9 +733,40 @@ public class Network {
 	/**
 	 * Unfold edges.
 	 */
-	public void unfold() {
-		checkInitialized();
-		for (Edge edge : edges.values()) { edge.unfold(); }
+	public void unfold() { checkCompiled().unfold(); }
+	/**
+	 * Clear the queues of all the edges, discarding the state of a sequence, to start a new one.
+	 */
+	public void clear() {
+		for (Edge edge : checkCompiled().edges) {
+			edge.clear();
+		}
+	}
+	/**
+	 * Return a copy of the recurrent state, the current forward values of the recurrent edges, that
+	 * is, the values that the next forward pass will read from them.
+	 * @return The list of values of the recurrent edges.
+	 */
+	public List<double[]> getRecurrentState() {
+		Plan plan = checkCompiled();
+		List<double[]> state = new ArrayList<>(plan.recurrentSlots.length);
+		for (int slot : plan.recurrentSlots) {
+			state.add(plan.edges[slot].getForwardValues().clone());
+		}
+		return state;
+	}
+	/**
+	 * Push the recurrent state to the recurrent edges, to be read by the next forward pass, for
+	 * instance to carry the state across chunks of a sequence after a <i>clear()</i>.
+	 * @param state The list of values of the recurrent edges, as returned by
+	 *              <i>getRecurrentState()</i>.
+	 */
+	public void setRecurrentState(List<double[]> state) {
+		Plan plan = checkCompiled();
+		checkSizes(state.size(), plan.recurrentSlots.length);
+		for (int i = 0; i < plan.recurrentSlots.length; i++) {
+			plan.edges[plan.recurrentSlots[i]].pushForward(state.get(i));
+		}
 	}
 
 	/**
@@ -314,6 +777,22 @@ public class Network {
 			throw new IllegalStateException("Network not properly initialized.");
 		}
 	}
+	/**
+	 * Check that the network has been compiled and return the plan.
+	 * @return The plan.
+	 */
+	private Plan checkCompiled() {
+		if (plan == null) throw new IllegalStateException("Network not properly initialized.");
+		return plan;
+	}
+	/**
+	 * Check that the network can be trained, that is, it is in double precision and not mapped.
+	 */
+	private void checkTrainable() {
+		if (precision != Precision.DOUBLE) throw new IllegalStateException("Float precision is inference only");
+		if (mapped) throw new IllegalStateException("Mapped weights are inference only");
+		if (frozen) throw new IllegalStateException("Frozen network is inference only");
+	}
 	/**
 	 * Check sizes.
 	 */
@@ -323,11 +802,110 @@ public class Network {
 		}
 	}
 
+	/**
+	 * Set the parameters of this network to the average of the parameters of the argument networks,
+	 * that must be copies of this network.
+	 * @param networks The list of networks to average.
+	 */
+	public void average(List<Network> networks) {
+		checkTrainable();
+		if (networks.isEmpty()) throw new IllegalArgumentException("Empty list of networks");
+		List<Map<UUID, Node>> nodeMaps = new ArrayList<>();
+		for (Network network : networks) {
+			nodeMaps.add(network.getNodeMap());
+		}
+		for (Node node : getNodes()) {
+			double[] parameters = node.getParameters();
+			if (parameters == null) continue;
+			Arrays.fill(parameters, 0);
+			for (Map<UUID, Node> nodeMap : nodeMaps) {
+				double[] source = getParameters(nodeMap, node);
+				for (int i = 0; i < parameters.length; i++) {
+					parameters[i] += source[i];
+				}
+			}
+			for (int i = 0; i < parameters.length; i++) {
+				parameters[i] /= networks.size();
+			}
+		}
+	}
+	/**
+	 * Copy the parameters of the argument network, that must be a copy of this network.
+	 * @param network The source network.
+	 */
+	public void copyParameters(Network network) {
+		checkTrainable();
+		Map<UUID, Node> nodeMap = network.getNodeMap();
+		for (Node node : getNodes()) {
+			double[] parameters = node.getParameters();
+			if (parameters == null) continue;
+			double[] source = getParameters(nodeMap, node);
+			System.arraycopy(source, 0, parameters, 0, parameters.length);
+		}
+	}
+	/**
+	 * Return the parameters of the node in the map with the same UUID as the argument node.
+	 * @param nodeMap The map of nodes by UUID.
+	 * @param node    The node.
+	 * @return The parameters.
+	 */
+	private static double[] getParameters(Map<UUID, Node> nodeMap, Node node) {
+		Node source = nodeMap.get(node.getUUID());
+		double[] parameters = node.getParameters();
+		double[] sourceParameters = (source == null ? null : source.getParameters());
+		if (sourceParameters == null || sourceParameters.length != parameters.length) {
+			throw new IllegalArgumentException("Networks do not match at node " + node.getUUID());
+		}
+		return sourceParameters;
+	}
+	/**
+	 * Return a map with all the nodes by UUID.
+	 * @return The map.
+	 */
+	Map<UUID, Node> getNodeMap() {
+		Map<UUID, Node> nodeMap = new HashMap<>();
+		for (Node node : getNodes()) {
+			nodeMap.put(node.getUUID(), node);
+		}
+		return nodeMap;
+	}
+
+	/**
+	 * Return a deep copy of this network, with the same topology, UUIDs and parameters, initialized
+	 * and with the same queue depth and precision. Parallel settings are not copied, and mapped
+	 * weights are copied to the heap.
+	 * @return The copy.
+	 */
+	public Network copy() {
+		checkInitialized();
+		Network network = new Network();
+		network.queueDepth = queueDepth;
+		if (precision == Precision.DOUBLE && !mapped) {
+			network.fromJSONObject(toJSONObject(false));
+			network.copyParameters(this);
+		} else {
+			network.fromJSONObject(toJSONObject());
+			network.setPrecision(precision);
+		}
+		return network;
+	}
+
 	/**
 	 * Restore the network from a JSONObject.
 	 * @param net The object.
 	 */
-	public void fromJSONObject(JSONObject net) {
+	public void fromJSONObject(JSONObject net) { fromJSONObject(net, Collections.emptyMap()); }
+	/**
+	 * Restore the network from a JSONObject, with the weights of weights nodes read-only from the
+	 * buffers mapped by node UUID.
+	 * @param net     The object.
+	 * @param buffers The map of buffers of weights by node UUID.
+	 */
+	void fromJSONObject(JSONObject net, Map<UUID, ByteBuffer> buffers) {
+
+		/* Read the optimizer, or the settings of the legacy weights nodes, or use the default. */
+		JSONObject legacy = null;
+		optimizer = (net.contains("optimizer") ? Optimizer.fromJSONObject(net.get("optimizer").getObject()) : new SGD());
 
 		/* Read the cells. */
 		JSONArray arr_cells = net.get("cells").getArray();
@@ -352,13 +930,19 @@ public class Network {
 					node = BiasNode.fromJSONObject(node_obj);
 				}
 				if (node_name.equals(WeightsNode.class.getSimpleName())) {
-					node = WeightsNode.fromJSONObject(node_obj);
+					UUID uuid = UUID.fromString(node_obj.get("uuid").getString());
+					node = WeightsNode.fromJSONObject(node_obj, buffers.get(uuid));
+					if (legacy == null && node_obj.contains("learning-rate")) legacy = node_obj;
+				}
+				if (node_name.equals(SoftMaxCrossEntropyNode.class.getSimpleName())) {
+					node = SoftMaxCrossEntropyNode.fromJSONObject(node_obj);
 				}
 				cell.putNode(node);
 			}
 
 			cells.put(cell, cell);
 		}
+		if (!net.contains("optimizer") && legacy != null) optimizer = getLegacyOptimizer(legacy);
 
 		/* Build a map with all nodes by string UUID. */
 		Map<String, Node> nodes = new HashMap<>();
@@ -397,17 +981,41 @@ public class Network {
 		initialize();
 	}
 
+	/**
+	 * Return the optimizer with the learning settings that older versions saved in each weights
+	 * node.
+	 * @param node The JSON definition of a weights node.
+	 * @return The optimizer.
+	 */
+	private static Optimizer getLegacyOptimizer(JSONObject node) {
+		SGD sgd = new SGD();
+		sgd.setLearningRate(node.get("learning-rate").getNumber().doubleValue());
+		sgd.setDecay(
+			node.get("decay-module").getNumber().intValue(),
+			node.get("decay-factor").getNumber().doubleValue(),
+			node.get("learning-rate-min").getNumber().doubleValue());
+		sgd.setMomentum(node.get("momentum").getNumber().doubleValue());
+		return sgd;
+	}
+
 	/**
 	 * Return a JSON definition of the edge.
 	 * @return The JSON definition.
 	 */
-	public JSONObject toJSONObject() {
+	public JSONObject toJSONObject() { return toJSONObject(true); }
+	/**
+	 * Return a JSON definition of the network, optionally without the parameters of the nodes, that
+	 * is, only the topology.
+	 * @param parameters A boolean that indicates whether to include the parameters.
+	 * @return The JSON definition.
+	 */
+	public JSONObject toJSONObject(boolean parameters) {
 		JSONObject net = new JSONObject();
 
 		/* Save cells. */
 		JSONArray arrCells = new JSONArray();
 		for (Cell cell : cells.values()) {
-			arrCells.add(cell.toJSONObject());
+			arrCells.add(cell.toJSONObject(parameters));
 		}
 		net.put("cells", arrCells);
 
@@ -418,6 +1026,9 @@ public class Network {
 		}
 		net.put("edges", arrEdges);
 
+		/* Save the optimizer settings. */
+		net.put("optimizer", optimizer.toJSONObject());
+
 		return net;
 	}
 
@@ -439,4 +1050,38 @@ public class Network {
 		JSONObject net = toJSONObject();
 		writer.write(net.toString(true));
 	}
+
+	/**
+	 * Restore the network from a binary checkpoint written with <i>saveCheckpoint</i>.
+	 * @param file The checkpoint file.
+	 * @throws IOException If such an error occurs.
+	 */
+	public void restoreCheckpoint(Path file) throws IOException {
+		Checkpoint.read(this, file);
+	}
+	/**
+	 * Restore the network from a binary checkpoint written with <i>saveCheckpoint</i>, with the
+	 * weights mapped read-only from the file instead of copied to the heap. The network is inference
+	 * only, startup does not depend on the size of the weights, and processes that map the same file
+	 * share its pages.
+	 * @param file The checkpoint file.
+	 * @throws IOException If such an error occurs.
+	 */
+	public void mapCheckpoint(Path file) throws IOException {
+		Checkpoint.map(this, file);
+		mapped = true;
+	}
+	/**
+	 * Save the network to a binary checkpoint, with the topology as compact JSON and the parameters
+	 * as raw little-endian doubles, much smaller and faster to write and read than the JSON save.
+	 * Frozen networks can be saved, float or mapped networks can not.
+	 * @param file The checkpoint file.
+	 * @throws IOException If such an error occurs.
+	 */
+	public void saveCheckpoint(Path file) throws IOException {
+		checkInitialized();
+		if (precision != Precision.DOUBLE) throw new IllegalStateException("Float precision can not be saved");
+		if (mapped) throw new IllegalStateException("Mapped weights can not be saved");
+		Checkpoint.write(this, file);
+	}
 }
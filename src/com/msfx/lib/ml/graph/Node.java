@@ -16,6 +16,7 @@
 
 package com.msfx.lib.ml.graph;
 
+import com.msfx.lib.ml.function.Optimizer;
 import com.msfx.lib.util.json.JSONObject;
 
 import java.util.ArrayList;
@@ -47,6 +48,11 @@ public abstract class Node {
 	/** List of output edges. */
 	private final List<Edge> outputEdges = new ArrayList<>();
 
+	/** Input edges frozen in an array when the network is compiled. */
+	private Edge[] inputEdgesArray = new Edge[0];
+	/** Output edges frozen in an array when the network is compiled. */
+	private Edge[] outputEdgesArray = new Edge[0];
+
 	/**
 	 * Constructor.
 	 */
@@ -75,6 +81,74 @@ public abstract class Node {
 	 */
 	public abstract void forward();
 
+	/**
+	 * Request batch blocks of deltas, apply any parameter update accumulated across the batch, and
+	 * push blocks of deltas to input edges.
+	 */
+	public abstract void backwardBatch();
+
+	/**
+	 * Request batch blocks of values from input edges, apply node calculations and push blocks of
+	 * values to output edges.
+	 */
+	public abstract void forwardBatch();
+
+	/**
+	 * Forward a single pattern without using the edges nor changing the state of the node, so that
+	 * it can be called concurrently, as done by frozen networks. The values of the input edges are
+	 * passed in the order of the input edges, and all the output edges share the output values. The
+	 * output array may be the first input array, and the other input arrays must not be modified.
+	 *
+	 * @param inputs The values of the input edges.
+	 * @param output The output values, to fill.
+	 */
+	public abstract void forward(double[][] inputs, double[] output);
+
+	/**
+	 * Apply the gradients accumulated by the backward passes to the parameters with the optimizer,
+	 * called by the update pass of the network. By default there are no parameters to update.
+	 *
+	 * @param optimizer The optimizer.
+	 */
+	public void update(Optimizer optimizer) { }
+
+	/**
+	 * Release the state only needed to train, like gradients and backward buffers, when the
+	 * network is frozen for inference. By default nothing to release.
+	 */
+	public void freeze() { }
+
+	/**
+	 * Freeze the lists of input and output edges in arrays, called when the network is compiled.
+	 */
+	void compile() {
+		inputEdgesArray = inputEdges.toArray(new Edge[inputEdges.size()]);
+		outputEdgesArray = outputEdges.toArray(new Edge[outputEdges.size()]);
+	}
+
+	/**
+	 * Return the input edge at the given index, as frozen when the network was compiled.
+	 * @param index The index.
+	 * @return The edge.
+	 */
+	public final Edge getInputEdge(int index) { return inputEdgesArray[index]; }
+	/**
+	 * Return the number of input edges, as frozen when the network was compiled.
+	 * @return The number of input edges.
+	 */
+	public final int getInputEdgeCount() { return inputEdgesArray.length; }
+	/**
+	 * Return the output edge at the given index, as frozen when the network was compiled.
+	 * @param index The index.
+	 * @return The edge.
+	 */
+	public final Edge getOutputEdge(int index) { return outputEdgesArray[index]; }
+	/**
+	 * Return the number of output edges, as frozen when the network was compiled.
+	 * @return The number of output edges.
+	 */
+	public final int getOutputEdgeCount() { return outputEdgesArray.length; }
+
 	/**
 	 * Return the list of input edges.
 	 * @return the list of edges.
@@ -86,6 +160,19 @@ public abstract class Node {
 	 */
 	public List<Edge> getOutputEdges() { return outputEdges; }
 
+	/**
+	 * Return the parameters of the node, trainable or not, as a flat array that is the live storage
+	 * of the node, or null if the node has no parameters.
+	 * @return The parameters or null.
+	 */
+	public double[] getParameters() { return null; }
+	/**
+	 * Set the storage precision of the parameters, converting them. Nodes without parameters
+	 * ignore the precision.
+	 * @param precision The precision.
+	 */
+	public void setPrecision(Precision precision) { }
+
 	/**
 	 * Return the cell to which the node belongs.
 	 * @return The cell.
@@ -109,11 +196,18 @@ public abstract class Node {
 	 * Return a JSON definition of the edge.
 	 * @return The JSON definition.
 	 */
-	public JSONObject toJSONObject() {
+	public JSONObject toJSONObject() { return toJSONObject(true); }
+	/**
+	 * Return a JSON definition of the node, optionally without the parameters, to save only the
+	 * topology.
+	 * @param parameters A boolean that indicates whether to include the parameters.
+	 * @return The JSON definition.
+	 */
+	public JSONObject toJSONObject(boolean parameters) {
 		JSONObject def = new JSONObject();
 		def.put("uuid", getUUID().toString());
 		def.put("name", getClass().getSimpleName());
-		toJSONObject(def);
+		toJSONObject(def, parameters);
 		return def;
 	}
 	/**
@@ -121,4 +215,11 @@ public abstract class Node {
 	 * @param def The JSONObject definition.
 	 */
 	public abstract void toJSONObject(JSONObject def);
+	/**
+	 * Append the particular node definition, optionally without the parameters. Nodes with
+	 * parameters must override it.
+	 * @param def        The JSONObject definition.
+	 * @param parameters A boolean that indicates whether to include the parameters.
+	 */
+	public void toJSONObject(JSONObject def, boolean parameters) { toJSONObject(def); }
 }
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.graph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * An immutable flat execution plan of a network, built by <i>Network.compile()</i>. Nodes are laid
+ * out in forward order in a single array, with layer boundaries given by start indexes, and edges
+ * are referenced by integer slots in an array of edges, so that the forward and backward passes
+ * are tight array walks without map or list lookups.
+ *
+ * @author Miquel Sas
+ */
+public final class Plan {
+
+	/** Operation forward. */
+	static final int FORWARD = 0;
+	/** Operation backward. */
+	static final int BACKWARD = 1;
+	/** Operation forward batch. */
+	static final int FORWARD_BATCH = 2;
+	/** Operation backward batch. */
+	static final int BACKWARD_BATCH = 3;
+
+	/** All the edges of the network, the index being the slot of the edge. */
+	final Edge[] edges;
+	/** Slots of the input edges. */
+	final int[] inputSlots;
+	/** Slots of the output edges. */
+	final int[] outputSlots;
+	/** Slots of the edges to unfold. */
+	final int[] unfoldSlots;
+	/** Slots of the recurrent edges, read before written in the forward order. */
+	final int[] recurrentSlots;
+
+	/** Nodes in forward order. */
+	final Node[] nodes;
+	/** Start index of each layer in the array of nodes, plus a last element with the length. */
+	final int[] layerStarts;
+	/** Flags that indicate whether the nodes of each layer can be executed concurrently. */
+	final boolean[] independent;
+	/** Tasks to execute concurrently the nodes of independent layers, by operation and layer. */
+	private final List<List<Callable<Void>>> tasks = new ArrayList<>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param layers       The list of layers in forward order.
+	 * @param inputEdges   The list of input edges.
+	 * @param outputEdges  The list of output edges.
+	 * @param networkEdges The collection of all the edges.
+	 */
+	Plan(List<List<Node>> layers, List<Edge> inputEdges, List<Edge> outputEdges, List<Edge> networkEdges) {
+
+		/* Edges and slots. */
+		edges = networkEdges.toArray(new Edge[networkEdges.size()]);
+		Map<Edge, Integer> slots = new HashMap<>();
+		for (int i = 0; i < edges.length; i++) {
+			slots.put(edges[i], i);
+		}
+		inputSlots = getSlots(inputEdges, slots);
+		outputSlots = getSlots(outputEdges, slots);
+		unfoldSlots = new int[edges.length];
+		for (int i = 0; i < edges.length; i++) {
+			unfoldSlots[i] = i;
+		}
+
+		/* Nodes, layers and independent flags. */
+		List<Node> nodeList = new ArrayList<>();
+		layerStarts = new int[layers.size() + 1];
+		independent = new boolean[layers.size()];
+		for (int i = 0; i < layers.size(); i++) {
+			List<Node> layer = layers.get(i);
+			layerStarts[i] = nodeList.size();
+			nodeList.addAll(layer);
+			boolean indep = (layer.size() > 1);
+			for (Node node : layer) {
+				for (Edge edge : node.getOutputEdges()) {
+					if (edge.getOutputNode() != null && layer.contains(edge.getOutputNode())) {
+						indep = false;
+					}
+				}
+			}
+			independent[i] = indep;
+		}
+		layerStarts[layers.size()] = nodeList.size();
+		nodes = nodeList.toArray(new Node[nodeList.size()]);
+
+		/* Recurrent edges, whose output node is executed before or is their input node. */
+		Map<Node, Integer> order = new HashMap<>();
+		for (int i = 0; i < nodes.length; i++) {
+			order.put(nodes[i], i);
+		}
+		List<Integer> recurrent = new ArrayList<>();
+		for (int i = 0; i < edges.length; i++) {
+			Integer in = (edges[i].getInputNode() == null ? null : order.get(edges[i].getInputNode()));
+			Integer out = (edges[i].getOutputNode() == null ? null : order.get(edges[i].getOutputNode()));
+			boolean rec = (in != null && out != null && out <= in);
+			edges[i].setRecurrent(rec);
+			if (rec) recurrent.add(i);
+		}
+		recurrentSlots = new int[recurrent.size()];
+		for (int i = 0; i < recurrentSlots.length; i++) {
+			recurrentSlots[i] = recurrent.get(i);
+		}
+
+		/* Freeze the edges of the nodes in arrays. */
+		for (Node node : nodes) {
+			node.compile();
+		}
+
+		/* Tasks of independent layers. */
+		for (int op = FORWARD; op <= BACKWARD_BATCH; op++) {
+			for (int layer = 0; layer < independent.length; layer++) {
+				List<Callable<Void>> layerTasks = new ArrayList<>();
+				if (independent[layer]) {
+					for (int i = layerStarts[layer]; i < layerStarts[layer + 1]; i++) {
+						Node node = nodes[i];
+						int operation = op;
+						layerTasks.add(() -> {
+							execute(node, operation);
+							return null;
+						});
+					}
+				}
+				tasks.add(layerTasks);
+			}
+		}
+	}
+
+	/**
+	 * Return the slots of the list of edges.
+	 *
+	 * @param list  The list of edges.
+	 * @param slots The map of slots.
+	 * @return The slots.
+	 */
+	private static int[] getSlots(List<Edge> list, Map<Edge, Integer> slots) {
+		int[] result = new int[list.size()];
+		for (int i = 0; i < list.size(); i++) {
+			result[i] = slots.get(list.get(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Execute an operation on a node.
+	 *
+	 * @param node The node.
+	 * @param op   The operation.
+	 */
+	private static void execute(Node node, int op) {
+		switch (op) {
+		case FORWARD -> node.forward();
+		case BACKWARD -> node.backward();
+		case FORWARD_BATCH -> node.forwardBatch();
+		case BACKWARD_BATCH -> node.backwardBatch();
+		default -> throw new IllegalArgumentException("Invalid operation " + op);
+		}
+	}
+
+	/**
+	 * Execute an operation on the nodes of a layer.
+	 *
+	 * @param op    The operation.
+	 * @param layer The layer.
+	 * @param pool  The pool to execute the nodes of independent layers concurrently, or null to
+	 *              always execute sequentially.
+	 */
+	void execute(int op, int layer, ForkJoinPool pool) {
+		if (pool == null || !independent[layer]) {
+			int end = layerStarts[layer + 1];
+			for (int i = layerStarts[layer]; i < end; i++) {
+				execute(nodes[i], op);
+			}
+			return;
+		}
+		for (Future<Void> future : pool.invokeAll(tasks.get(op * independent.length + layer))) {
+			try {
+				future.get();
+			} catch (InterruptedException exc) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(exc);
+			} catch (ExecutionException exc) {
+				Throwable cause = exc.getCause();
+				if (cause instanceof RuntimeException rte) throw rte;
+				if (cause instanceof Error err) throw err;
+				throw new IllegalStateException(cause);
+			}
+		}
+	}
+
+	/**
+	 * Return the number of layers.
+	 *
+	 * @return The number of layers.
+	 */
+	public int getLayerCount() { return independent.length; }
+	/**
+	 * Return the number of nodes.
+	 *
+	 * @return The number of nodes.
+	 */
+	public int getNodeCount() { return nodes.length; }
+	/**
+	 * Return the number of edge slots.
+	 *
+	 * @return The number of edges.
+	 */
+	public int getEdgeCount() { return edges.length; }
+
+	/**
+	 * Rewind the recurrent edges before the backward pass.
+	 */
+	void rewind() {
+		for (int slot : recurrentSlots) {
+			edges[slot].rewind();
+		}
+	}
+	/**
+	 * Unfold all the edges of the plan.
+	 */
+	void unfold() {
+		for (int slot : unfoldSlots) {
+			edges[slot].unfold();
+		}
+	}
+}
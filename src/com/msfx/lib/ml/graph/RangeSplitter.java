@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.graph;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits a range of indexes among the threads of a fork-join pool, recursively halving it down to
+ * leaves of a minimum grain, so that idle threads steal the pending halves and uneven work is
+ * balanced.
+ * <p>
+ * The work of a range is measured as the number of indexes by the cost of each index, normally
+ * the number of multiply-adds. Ranges whose total work is below the serial threshold are executed
+ * in the calling thread, leaves are never smaller than the grain, and there are at most four
+ * leaves per thread of the pool. With a parallelism limit, the range is divided in at most that
+ * number of leaves, so that no more threads than the limit work on it.
+ *
+ * @author Miquel Sas
+ */
+public final class RangeSplitter {
+
+	/**
+	 * A task executed over a range of indexes.
+	 */
+	@FunctionalInterface
+	public interface RangeTask {
+		/**
+		 * Execute the task from the start index to the end index, included.
+		 *
+		 * @param start The start index.
+		 * @param end   The end index, included.
+		 */
+		void execute(int start, int end);
+	}
+
+	/**
+	 * The recursive action that halves a range of leaves, until a single leaf is executed.
+	 */
+	@SuppressWarnings("serial")
+	private static class RangeAction extends RecursiveAction {
+		private final RangeTask task;
+		private final int count, leaves, first, last;
+		private RangeAction(RangeTask task, int count, int leaves, int first, int last) {
+			this.task = task;
+			this.count = count;
+			this.leaves = leaves;
+			this.first = first;
+			this.last = last;
+		}
+		@Override
+		protected void compute() {
+			if (first == last) {
+				int start = (int) ((long) count * first / leaves);
+				int end = (int) ((long) count * (first + 1) / leaves) - 1;
+				task.execute(start, end);
+				return;
+			}
+			int middle = (first + last) >>> 1;
+			invokeAll(
+				new RangeAction(task, count, leaves, first, middle),
+				new RangeAction(task, count, leaves, middle + 1, last));
+		}
+	}
+
+	/** Default minimum work of a leaf task, in multiply-adds. */
+	public static final int DEFAULT_GRAIN = 8192;
+	/** Default total work below which ranges are executed serially, in multiply-adds. */
+	public static final int DEFAULT_SERIAL_THRESHOLD = 65536;
+	/** Number of leaf tasks per thread of the pool when splitting large ranges. */
+	private static final int TASKS_PER_THREAD = 4;
+
+	/** The pool. */
+	private final ForkJoinPool pool;
+	/** Minimum work of a leaf task. */
+	private final int grain;
+	/** Total work below which ranges are executed serially. */
+	private final int serialThreshold;
+	/** Maximum number of threads working on a range, zero for no limit. */
+	private final int parallelism;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param pool            The pool.
+	 * @param grain           The minimum work of a leaf task, in multiply-adds.
+	 * @param serialThreshold The total work below which ranges are executed serially.
+	 * @param parallelism     The maximum number of threads working on a range, zero for no limit.
+	 */
+	public RangeSplitter(ForkJoinPool pool, int grain, int serialThreshold, int parallelism) {
+		if (grain < 1) throw new IllegalArgumentException("Invalid grain " + grain);
+		if (serialThreshold < 0) throw new IllegalArgumentException("Invalid serial threshold " + serialThreshold);
+		if (parallelism < 0) throw new IllegalArgumentException("Invalid parallelism " + parallelism);
+		this.pool = pool;
+		this.grain = grain;
+		this.serialThreshold = serialThreshold;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Execute the task over the indexes from zero to count minus one.
+	 *
+	 * @param count The number of indexes.
+	 * @param cost  The work of each index, in multiply-adds.
+	 * @param task  The task.
+	 */
+	public void execute(int count, int cost, RangeTask task) {
+		if (count <= 0) return;
+		long work = (long) count * Math.max(cost, 1);
+		if (work < serialThreshold || count == 1 || parallelism == 1) {
+			task.execute(0, count - 1);
+			return;
+		}
+		int leaves = getLeafCount(count, cost);
+		if (leaves == 1) {
+			task.execute(0, count - 1);
+			return;
+		}
+		RangeAction action = new RangeAction(task, count, leaves, 0, leaves - 1);
+		if (ForkJoinTask.getPool() == pool) {
+			action.invoke();
+		} else {
+			pool.invoke(action);
+		}
+	}
+
+	/**
+	 * Return the number of leaf tasks, of almost equal size, to divide the range.
+	 *
+	 * @param count The number of indexes.
+	 * @param cost  The work of each index.
+	 * @return The number of leaves.
+	 */
+	int getLeafCount(int count, int cost) {
+		long work = (long) count * Math.max(cost, 1);
+		long byGrain = Math.max(1, work / grain);
+		int tasks = (parallelism > 0 ? parallelism : pool.getParallelism() * TASKS_PER_THREAD);
+		return (int) Math.min(count, Math.min(byGrain, tasks));
+	}
+
+	/**
+	 * Return the pool.
+	 *
+	 * @return The pool.
+	 */
+	public ForkJoinPool getPool() { return pool; }
+	/**
+	 * Return the minimum work of a leaf task.
+	 *
+	 * @return The grain.
+	 */
+	public int getGrain() { return grain; }
+	/**
+	 * Return the total work below which ranges are executed serially.
+	 *
+	 * @return The serial threshold.
+	 */
+	public int getSerialThreshold() { return serialThreshold; }
+	/**
+	 * Return the maximum number of threads working on a range.
+	 *
+	 * @return The parallelism, zero for no limit.
+	 */
+	public int getParallelism() { return parallelism; }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.graph;
+
+/**
+ * A stack of a fixed number of preallocated and reusable vectors, used by edges as an allocation
+ * free alternative to the forward and backward deques. Exceeding the depth throws an exception,
+ * since overwriting the oldest vector would silently drop the history needed by the backward
+ * pass.
+ *
+ * @author Miquel Sas
+ */
+class Ring {
+
+	/** Preallocated buffers. */
+	private final double[][] buffers;
+	/** Index of the top buffer. */
+	private int top = -1;
+	/** Number of buffers in use. */
+	private int count = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param depth The number of buffers.
+	 * @param size  The size of each buffer.
+	 */
+	Ring(int depth, int size) {
+		if (depth < 1) throw new IllegalArgumentException("Invalid depth " + depth);
+		buffers = new double[depth][size];
+	}
+
+	/**
+	 * Remove all buffers from the stack.
+	 */
+	void clear() {
+		top = -1;
+		count = 0;
+	}
+	/**
+	 * Return the top buffer or null if the stack is empty.
+	 *
+	 * @return The top buffer.
+	 */
+	double[] peek() { return count == 0 ? null : buffers[top]; }
+	/**
+	 * Remove the top buffer, if any.
+	 */
+	void pop() {
+		if (count == 0) return;
+		top = (top == 0 ? buffers.length - 1 : top - 1);
+		count--;
+	}
+	/**
+	 * Push the next buffer and return it to be filled by the caller.
+	 *
+	 * @return The buffer, that may contain the values of a previous use.
+	 * @throws IllegalStateException If all the buffers are in use.
+	 */
+	double[] push() {
+		if (count == buffers.length) {
+			throw new IllegalStateException("Queue depth " + buffers.length + " exceeded");
+		}
+		top = (top + 1) % buffers.length;
+		count++;
+		return buffers[top];
+	}
+	/**
+	 * Return the number of buffers in use.
+	 *
+	 * @return The number of buffers in use.
+	 */
+	int size() { return count; }
+}
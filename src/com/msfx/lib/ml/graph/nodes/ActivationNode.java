@@ -21,6 +21,7 @@ import com.msfx.lib.ml.graph.Edge;
 import com.msfx.lib.ml.graph.Node;
 import com.msfx.lib.util.json.JSONObject;
 
+import java.util.Arrays;
 import java.util.UUID;
 
 /**
@@ -50,6 +51,11 @@ public class ActivationNode extends Node {
 	/** Flat spot to avoid near zero derivatives. */
 	private double flatSpot = 0.01;
 
+	/** Reusable buffer of trigger values. */
+	private double[] triggerValues;
+	/** Reusable buffer of derivatives. */
+	private double[] derivatives;
+
 	/**
 	 * Constructor.
 	 * @param activation The activation function.
@@ -92,23 +98,61 @@ public class ActivationNode extends Node {
 	@Override
 	public void backward() {
 		int size = size();
-		double[] triggerDeltas = new double[size];
-		for (Edge edge : getOutputEdges()) {
-			double[] outputDeltas = edge.getBackwardDeltas();
+		double[] triggerDeltas = getInputEdge(0).acquireBackward();
+		Arrays.fill(triggerDeltas, 0);
+		for (int i = 0; i < getOutputEdgeCount(); i++) {
+			double[] outputDeltas = getOutputEdge(i).getBackwardDeltas();
 			for (int n = 0; n < size; n++) {
 				triggerDeltas[n] += outputDeltas[n];
-			}			
+			}
 		}
 
 		// All output edges have the same output values
-		double[] outputValues = getOutputEdges().get(0).getForwardValues();
-		double[] derivatives = activation.derivatives(outputValues);
+		double[] outputValues = getOutputEdge(0).getForwardValues();
+		if (derivatives == null || derivatives.length != size) {
+			derivatives = new double[size];
+		}
+		activation.derivatives(outputValues, derivatives);
 		for (int n = 0; n < size; n++) {
 			triggerDeltas[n] = triggerDeltas[n] * (derivatives[n] + flatSpot);
 		}
 
-		for (Edge edge : getInputEdges()) {
-			edge.pushBackward(triggerDeltas);
+		for (int i = 1; i < getInputEdgeCount(); i++) {
+			getInputEdge(i).pushBackward(triggerDeltas);
+		}
+	}
+
+	/**
+	 * Request batch blocks of deltas and push blocks of deltas to input edges.
+	 */
+	@Override
+	public void backwardBatch() {
+		int size = size();
+		int rows = getCell().getNetwork().getBatchSize();
+		double[][] triggerDeltas = new double[rows][size];
+		for (int i = 0; i < getOutputEdgeCount(); i++) {
+			double[][] outputDeltas = getOutputEdge(i).getBackwardBatch(rows);
+			for (int r = 0; r < rows; r++) {
+				for (int n = 0; n < size; n++) {
+					triggerDeltas[r][n] += outputDeltas[r][n];
+				}
+			}
+		}
+
+		// All output edges have the same output values
+		double[][] outputValues = getOutputEdge(0).getForwardBatch(rows);
+		if (derivatives == null || derivatives.length != size) {
+			derivatives = new double[size];
+		}
+		for (int r = 0; r < rows; r++) {
+			activation.derivatives(outputValues[r], derivatives);
+			for (int n = 0; n < size; n++) {
+				triggerDeltas[r][n] = triggerDeltas[r][n] * (derivatives[n] + flatSpot);
+			}
+		}
+
+		for (int i = 0; i < getInputEdgeCount(); i++) {
+			getInputEdge(i).pushBackward(triggerDeltas);
 		}
 	}
 
@@ -118,19 +162,78 @@ public class ActivationNode extends Node {
 	@Override
 	public void forward() {
 		int size = size();
-		double[] triggerValues = new double[size];
-		for (Edge edge : getInputEdges()) {
-			double[] inputValues = edge.getForwardValues();
+		if (triggerValues == null || triggerValues.length != size) {
+			triggerValues = new double[size];
+		}
+		Arrays.fill(triggerValues, 0);
+		for (int i = 0; i < getInputEdgeCount(); i++) {
+			double[] inputValues = getInputEdge(i).getForwardValues();
 			for (int n = 0; n < size; n++) {
 				triggerValues[n] += inputValues[n];
 			}
 		}
-		double[] outputValues = activation.activations(triggerValues);
-		for (Edge edge : getOutputEdges()) {
-			edge.pushForward(outputValues);
+		double[] outputValues = getOutputEdge(0).acquireForward();
+		activation.activations(triggerValues, outputValues);
+		for (int i = 1; i < getOutputEdgeCount(); i++) {
+			getOutputEdge(i).pushForward(outputValues);
+		}
+	}
+
+	/**
+	 * Request batch blocks of values from input edges, apply the activation to each row and push
+	 * blocks of values to output edges.
+	 */
+	@Override
+	public void forwardBatch() {
+		int size = size();
+		int rows = getCell().getNetwork().getBatchSize();
+		double[][] triggerValues = new double[rows][size];
+		for (int i = 0; i < getInputEdgeCount(); i++) {
+			double[][] inputValues = getInputEdge(i).getForwardBatch(rows);
+			for (int r = 0; r < rows; r++) {
+				for (int n = 0; n < size; n++) {
+					triggerValues[r][n] += inputValues[r][n];
+				}
+			}
+		}
+		// Activate in place, the block of triggers becomes the block of outputs
+		for (int r = 0; r < rows; r++) {
+			activation.activations(triggerValues[r], triggerValues[r]);
+		}
+		for (int i = 0; i < getOutputEdgeCount(); i++) {
+			getOutputEdge(i).pushForward(triggerValues);
+		}
+	}
+
+	/**
+	 * Stateless forward of the sum of the input values.
+	 */
+	@Override
+	public void forward(double[][] inputs, double[] output) {
+		sum(inputs, output);
+		activation.activations(output, output);
+	}
+	/**
+	 * Sum the input values into the output, that may be the first input.
+	 * @param inputs The input values.
+	 * @param output The output.
+	 */
+	static void sum(double[][] inputs, double[] output) {
+		System.arraycopy(inputs[0], 0, output, 0, output.length);
+		for (int i = 1; i < inputs.length; i++) {
+			double[] values = inputs[i];
+			for (int n = 0; n < output.length; n++) {
+				output[n] += values[n];
+			}
 		}
 	}
 
+	/**
+	 * Release the buffer of derivatives.
+	 */
+	@Override
+	public void freeze() { derivatives = null; }
+
 	/**
 	 * The node is empty if both input and output edges are empty.
 	 * @return A boolean.
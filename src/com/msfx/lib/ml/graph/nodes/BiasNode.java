@@ -36,16 +36,23 @@ public class BiasNode extends Node {
 	public static BiasNode fromJSONObject(JSONObject obj) {
 		String uuid = obj.get("uuid").getString();
 		BiasNode node = new BiasNode(UUID.fromString(uuid));
-		JSONArray arr = obj.get("output-values").getArray();
-		node.outputValues = new double[arr.size()];
-		for (int i = 0; i < arr.size(); i++) {
-			node.outputValues[i] = arr.get(i).getNumber().doubleValue();
+		if (obj.contains("output-values")) {
+			JSONArray arr = obj.get("output-values").getArray();
+			node.outputValues = new double[arr.size()];
+			for (int i = 0; i < arr.size(); i++) {
+				node.outputValues[i] = arr.get(i).getNumber().doubleValue();
+			}
+		} else {
+			node.outputValues = new double[obj.get("size").getNumber().intValue()];
+			Arrays.fill(node.outputValues, 1.0);
 		}
 		return node;
 	}
 
 	/** Bias output values. */
 	private double[] outputValues;
+	/** Batch block of output values, all rows refer to the output values. */
+	private double[][] outputBatch;
 
 	/**
 	 * Constructor.
@@ -72,15 +79,57 @@ public class BiasNode extends Node {
 	 */
 	@Override
 	public void forward() {
-		for (int out = 0; out < getOutputEdges().size(); out++) {
-			getOutputEdges().get(out).pushForward(outputValues);
+		for (int out = 0; out < getOutputEdgeCount(); out++) {
+			getOutputEdge(out).pushForward(outputValues);
 		}
 	}
 
+	/**
+	 * Stateless forward, copy the bias output values.
+	 */
+	@Override
+	public void forward(double[][] inputs, double[] output) {
+		System.arraycopy(outputValues, 0, output, 0, outputValues.length);
+	}
+
+	/**
+	 * Nothing to do backward.
+	 */
+	@Override
+	public void backwardBatch() {}
+
+	/**
+	 * Push a block with the output values in every row to the output edges.
+	 */
+	@Override
+	public void forwardBatch() {
+		int rows = getCell().getNetwork().getBatchSize();
+		if (outputBatch == null || outputBatch.length != rows) {
+			outputBatch = new double[rows][];
+			Arrays.fill(outputBatch, outputValues);
+		}
+		for (int out = 0; out < getOutputEdgeCount(); out++) {
+			getOutputEdge(out).pushForward(outputBatch);
+		}
+	}
+
+	/**
+	 * Return the bias output values, the live storage of the node.
+	 */
+	@Override
+	public double[] getParameters() { return outputValues; }
+
 	/**
 	 * Append the particular node definition.
 	 */
-	public void toJSONObject(JSONObject def) {
+	public void toJSONObject(JSONObject def) { toJSONObject(def, true); }
+	/**
+	 * Append the particular node definition, optionally without the output values.
+	 */
+	@Override
+	public void toJSONObject(JSONObject def, boolean parameters) {
+		def.put("size", outputValues.length);
+		if (!parameters) return;
 		JSONArray arr = new JSONArray();
 		for (double value : outputValues) { arr.add(value); }
 		def.put("output-values", arr);
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.graph.nodes;
+
+import com.msfx.lib.ml.function.activation.SoftMax;
+import com.msfx.lib.ml.graph.Edge;
+import com.msfx.lib.ml.graph.Node;
+import com.msfx.lib.util.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Output node that applies a stable soft-max to the sum of its inputs and is trained with the
+ * cross-entropy loss. The gradient of the loss with respect to the triggers is the probabilities
+ * minus the targets, thus with the network convention of deltas as targets minus outputs, the
+ * output deltas are pushed unchanged to the input edges.
+ * <p>
+ * Can have any number of input and output edges, but all must have the same size.
+ *
+ * @author Miquel Sas
+ */
+public class SoftMaxCrossEntropyNode extends Node {
+
+	/**
+	 * Builder to restore from a JSON object with the node definition.
+	 * @param obj The JSON object.
+	 * @return The node.
+	 */
+	public static SoftMaxCrossEntropyNode fromJSONObject(JSONObject obj) {
+		String uuid = obj.get("uuid").getString();
+		return new SoftMaxCrossEntropyNode(UUID.fromString(uuid));
+	}
+
+	/** Soft-max function. */
+	private final SoftMax softMax = new SoftMax();
+	/** Reusable buffer of trigger values. */
+	private double[] triggerValues;
+
+	/**
+	 * Constructor.
+	 */
+	public SoftMaxCrossEntropyNode() { }
+	/**
+	 * Constructor to restore.
+	 * @param uuid UUID:
+	 */
+	private SoftMaxCrossEntropyNode(UUID uuid) { super(uuid); }
+
+	/**
+	 * Add an input edge.
+	 * @param edge The edge.
+	 */
+	public void addInputEdge(Edge edge) {
+		if (!isEmpty() && edge.size() != size()) throw new IllegalArgumentException("Invalid edge size");
+		getInputEdges().add(edge);
+	}
+	/**
+	 * Add an output edge.
+	 * @param edge The edge.
+	 */
+	public void addOutputEdge(Edge edge) {
+		if (!isEmpty() && edge.size() != size()) throw new IllegalArgumentException("Invalid edge size");
+		getOutputEdges().add(edge);
+	}
+
+	/**
+	 * Request deltas and push them unchanged to the input edges.
+	 */
+	@Override
+	public void backward() {
+		int size = size();
+		double[] triggerDeltas = getInputEdge(0).acquireBackward();
+		Arrays.fill(triggerDeltas, 0);
+		for (int i = 0; i < getOutputEdgeCount(); i++) {
+			double[] outputDeltas = getOutputEdge(i).getBackwardDeltas();
+			for (int n = 0; n < size; n++) {
+				triggerDeltas[n] += outputDeltas[n];
+			}
+		}
+		for (int i = 1; i < getInputEdgeCount(); i++) {
+			getInputEdge(i).pushBackward(triggerDeltas);
+		}
+	}
+
+	/**
+	 * Request batch blocks of deltas and push them unchanged to the input edges.
+	 */
+	@Override
+	public void backwardBatch() {
+		int size = size();
+		int rows = getCell().getNetwork().getBatchSize();
+		double[][] triggerDeltas = new double[rows][size];
+		for (int i = 0; i < getOutputEdgeCount(); i++) {
+			double[][] outputDeltas = getOutputEdge(i).getBackwardBatch(rows);
+			for (int r = 0; r < rows; r++) {
+				for (int n = 0; n < size; n++) {
+					triggerDeltas[r][n] += outputDeltas[r][n];
+				}
+			}
+		}
+		for (int i = 0; i < getInputEdgeCount(); i++) {
+			getInputEdge(i).pushBackward(triggerDeltas);
+		}
+	}
+
+	/**
+	 * Request values from input edges, apply the soft-max and push values to output edges.
+	 */
+	@Override
+	public void forward() {
+		int size = size();
+		if (triggerValues == null || triggerValues.length != size) {
+			triggerValues = new double[size];
+		}
+		Arrays.fill(triggerValues, 0);
+		for (int i = 0; i < getInputEdgeCount(); i++) {
+			double[] inputValues = getInputEdge(i).getForwardValues();
+			for (int n = 0; n < size; n++) {
+				triggerValues[n] += inputValues[n];
+			}
+		}
+		double[] outputValues = getOutputEdge(0).acquireForward();
+		softMax.activations(triggerValues, outputValues);
+		for (int i = 1; i < getOutputEdgeCount(); i++) {
+			getOutputEdge(i).pushForward(outputValues);
+		}
+	}
+
+	/**
+	 * Request batch blocks of values from input edges, apply the soft-max to each row and push
+	 * blocks of values to output edges.
+	 */
+	@Override
+	public void forwardBatch() {
+		int size = size();
+		int rows = getCell().getNetwork().getBatchSize();
+		double[][] triggerValues = new double[rows][size];
+		for (int i = 0; i < getInputEdgeCount(); i++) {
+			double[][] inputValues = getInputEdge(i).getForwardBatch(rows);
+			for (int r = 0; r < rows; r++) {
+				for (int n = 0; n < size; n++) {
+					triggerValues[r][n] += inputValues[r][n];
+				}
+			}
+		}
+		for (int r = 0; r < rows; r++) {
+			softMax.activations(triggerValues[r], triggerValues[r]);
+		}
+		for (int i = 0; i < getOutputEdgeCount(); i++) {
+			getOutputEdge(i).pushForward(triggerValues);
+		}
+	}
+
+	/**
+	 * Stateless forward of the soft-max of the sum of the input values.
+	 */
+	@Override
+	public void forward(double[][] inputs, double[] output) {
+		ActivationNode.sum(inputs, output);
+		softMax.activations(output, output);
+	}
+
+	/**
+	 * The node is empty if both input and output edges are empty.
+	 * @return A boolean.
+	 */
+	public boolean isEmpty() { return getInputEdges().isEmpty() && getOutputEdges().isEmpty(); }
+	/**
+	 * Return the node size, that is, zero if empty, otherwise the size of any of its edges.
+	 * @return The size.
+	 */
+	public int size() {
+		if (isEmpty()) return 0;
+		else if (!getInputEdges().isEmpty()) return getInputEdges().get(0).size();
+		else return getOutputEdges().get(0).size();
+	}
+
+	/**
+	 * Append the particular node definition, nothing to append.
+	 */
+	public void toJSONObject(JSONObject def) { }
+}
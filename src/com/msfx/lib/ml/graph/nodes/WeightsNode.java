@@ -16,20 +16,23 @@
 
 package com.msfx.lib.ml.graph.nodes;
 
-import com.msfx.lib.ml.graph.Graph;
-import com.msfx.lib.ml.graph.Graph.Range;
+import com.msfx.lib.ml.function.Optimizer;
 import com.msfx.lib.ml.graph.Node;
+import com.msfx.lib.ml.graph.Precision;
+import com.msfx.lib.ml.graph.RangeSplitter.RangeTask;
+import com.msfx.lib.ml.kernel.Kernels;
 import com.msfx.lib.util.json.JSONArray;
 import com.msfx.lib.util.json.JSONObject;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.UUID;
-import java.util.concurrent.Callable;
 
 /**
- * Minimum weights node using stochastic gradient descent back propagation to apply adjustments.
+ * Minimum weights node. The backward pass accumulates the gradients of the weights, that the
+ * update pass of the network applies with the optimizer of the network.
  *
  * @author Miquel Sas
  */
@@ -41,39 +44,43 @@ public class WeightsNode extends Node {
 	 * @param obj The JSON object.
 	 * @return The node.
 	 */
-	public static WeightsNode fromJSONObject(JSONObject obj) {
+	public static WeightsNode fromJSONObject(JSONObject obj) { return fromJSONObject(obj, null); }
+	/**
+	 * Builder to restore from a JSON object with the node definition, optionally with the weights
+	 * read-only from a buffer of little-endian doubles, like a region mapped from a checkpoint file.
+	 * A node with mapped weights does not allocate weights nor gradients and is inference only.
+	 *
+	 * @param obj     The JSON object.
+	 * @param weights The buffer with the weights, or null.
+	 * @return The node.
+	 */
+	public static WeightsNode fromJSONObject(JSONObject obj, ByteBuffer weights) {
 		String uuid = obj.get("uuid").getString();
 		WeightsNode node = new WeightsNode(UUID.fromString(uuid));
 		node.inputSize = obj.get("input-size").getNumber().intValue();
 		node.outputSize = obj.get("output-size").getNumber().intValue();
-		node.learningRate = obj.get("learning-rate").getNumber().doubleValue();
-		node.learningRateMin = obj.get("learning-rate-min").getNumber().doubleValue();
-		node.decayModule = obj.get("decay-module").getNumber().doubleValue();
-		node.decayFactor = obj.get("decay-factor").getNumber().doubleValue();
-		node.momentum = obj.get("momentum").getNumber().doubleValue();
-		node.gradients = new double[node.inputSize][node.outputSize];
-		node.weights = new double[node.inputSize][node.outputSize];
-		JSONArray arrIn = obj.get("weights").getArray();
-		for (int in = 0; in < arrIn.size(); in++) {
-			JSONArray arrOut = arrIn.get(in).getArray();
-			for (int out = 0; out < arrOut.size(); out++) {
-				node.weights[in][out] = arrOut.get(out).getNumber().doubleValue();
+		if (weights != null) {
+			if (weights.capacity() != node.inputSize * node.outputSize * Double.BYTES) {
+				throw new IllegalArgumentException("Invalid size of mapped weights");
+			}
+			node.weightsMapped = weights.order(ByteOrder.LITTLE_ENDIAN);
+			return node;
+		}
+		node.gradients = new double[node.inputSize * node.outputSize];
+		node.weights = new double[node.inputSize * node.outputSize];
+		if (obj.contains("weights")) {
+			JSONArray arrIn = obj.get("weights").getArray();
+			for (int in = 0; in < arrIn.size(); in++) {
+				JSONArray arrOut = arrIn.get(in).getArray();
+				int offset = in * node.outputSize;
+				for (int out = 0; out < arrOut.size(); out++) {
+					node.weights[offset + out] = arrOut.get(out).getNumber().doubleValue();
+				}
 			}
 		}
 		return node;
 	}
 
-	private class TaskBackward implements Callable<Void> {
-		private int inStart, inEnd;
-		private TaskBackward(int inStart, int inEnd) { this.inStart = inStart; this.inEnd = inEnd; }
-		public Void call() throws Exception { backward(inStart, inEnd); return null; }
-	}
-	private class TaskForward implements Callable<Void> {
-		private int outStart, outEnd;
-		private TaskForward(int outStart, int outEnd) { this.outStart = outStart; this.outEnd = outEnd; }
-		public Void call() throws Exception { forward(outStart, outEnd); return null; }
-	}
-
 	/** Input size. */
 	private int inputSize;
 	/** Output size. */
@@ -89,29 +96,42 @@ public class WeightsNode extends Node {
 	/** input deltas pushed from the unique input edge. */
 	private double[] inputDeltas;
 
-	/** Gradients (in, out). */
-	private double[][] gradients;
-	/** Weights (in, out). */
-	private double[][] weights;
-
-	/** Momentum factor. */
-	private double momentum = 0.0;
-
-	/** Starting learning rate. */
-	private double learningRate = 0.1;
-	/** Minimum learning rate. */
-	private double learningRateMin = 0.005;
-	/** Learning rate decay module. */
-	private double decayModule = 1000;
-	/** Learning rate decay factor. */
-	private double decayFactor = 0.999;
-	/** Counter of calls to backward. */
-	private int calls = 0;
-
-	/** List of backward tasks when parallel executing is implemented. */
-	private List<Callable<Void>> backwardTasks;
-	/** List of forward tasks when parallel executing is implemented. */
-	private List<Callable<Void>> forwardTasks;
+	/** Batch block of input values read from the unique input edge. */
+	private double[][] inputBatch;
+	/** Batch block of output values pushed to the output edge. */
+	private double[][] outputBatch;
+
+	/** Batch block of output deltas read from the unique output edge. */
+	private double[][] outputDeltasBatch;
+	/** Batch block of input deltas pushed to the unique input edge. */
+	private double[][] inputDeltasBatch;
+
+	/** Accumulated gradients (in, out), flat row-major with index <i>in * outputSize + out</i>. */
+	private double[] gradients;
+	/** Number of patterns accumulated in the gradients since the last update. */
+	private int accumulated;
+	/** State arrays of the optimizer, parallel to the weights. */
+	private double[][] state;
+	/** The optimizer that owns the state. */
+	private Optimizer stateOptimizer;
+	/** Weights (in, out), flat row-major with index <i>in * outputSize + out</i>. */
+	private double[] weights;
+	/** Single precision weights, replacing weights and gradients in float precision. */
+	private float[] weightsFloat;
+	/** Read-only weights as little-endian doubles mapped from a file, replacing weights and gradients. */
+	private ByteBuffer weightsMapped;
+
+	/** Numeric kernels. */
+	private final Kernels kernels = Kernels.get();
+
+	/** Range task of the backward pass, by input index. */
+	private final RangeTask backwardRange = this::backward;
+	/** Range task of the forward pass, by output index. */
+	private final RangeTask forwardRange = this::forward;
+	/** Range task of the batch backward pass, by input index. */
+	private final RangeTask backwardBatchRange = this::backwardBatch;
+	/** Range task of the batch forward pass, by row. */
+	private final RangeTask forwardBatchRange = this::forwardBatch;
 
 	/**
 	 * Constructor.
@@ -122,15 +142,13 @@ public class WeightsNode extends Node {
 	public WeightsNode(int inputSize, int outputSize) {
 		this.inputSize = inputSize;
 		this.outputSize = outputSize;
-		this.gradients = new double[inputSize][outputSize];
-		this.weights = new double[inputSize][outputSize];
+		this.gradients = new double[inputSize * outputSize];
+		this.weights = new double[inputSize * outputSize];
 
 		/* Randomly initialize weights. */
 		Random rand = new Random(100000);
-		for (int in = 0; in < inputSize; in++) {
-			for (int out = 0; out < outputSize; out++) {
-				weights[in][out] = rand.nextGaussian();
-			}
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = rand.nextGaussian();
 		}
 	}
 	/**
@@ -141,38 +159,18 @@ public class WeightsNode extends Node {
 	WeightsNode(UUID uuid) { super(uuid); }
 
 	/**
-	 * Request deltas, apply any parameter update, and push deltas to input edges.
+	 * Request deltas, accumulate the gradients, and push deltas to input edges.
 	 */
 	@Override
 	public void backward() {
 
-		inputValues = getInputEdges().get(0).getForwardValues();
-		outputDeltas = getOutputEdges().get(0).getBackwardDeltas();
-		inputDeltas = new double[inputSize];
-
-		boolean parallel = getCell().getNetwork().isParallelProcessing();
-		if (!parallel) {
-			int inStart = 0;
-			int inEnd = inputSize - 1;
-			backward(inStart, inEnd);
-		} else {
-			if (backwardTasks == null) {
-				List<Range> ranges = getRanges(inputSize);
-				backwardTasks = new ArrayList<>();
-				for (Range range : ranges) { backwardTasks.add(new TaskBackward(range.start, range.end)); }
-			}
-			getCell().getNetwork().getPool().invokeAll(backwardTasks);
-		}
-
-		getInputEdges().get(0).pushBackward(inputDeltas);
-
-		if (decayModule > 0) {
-			calls++;
-			if (calls % decayModule == 0) {
-				learningRate = Math.max(learningRate * decayFactor, learningRateMin);
-			}
-		}
+		checkTrainable();
+		inputValues = getInputEdge(0).getForwardValues();
+		outputDeltas = getOutputEdge(0).getBackwardDeltas();
+		inputDeltas = getInputEdge(0).acquireBackward();
 
+		getCell().getNetwork().execute(inputSize, 2 * outputSize, backwardRange);
+		accumulated++;
 	}
 
 	/**
@@ -182,90 +180,269 @@ public class WeightsNode extends Node {
 	 */
 	private void backward(int inStart, int inEnd) {
 		for (int in = inStart; in <= inEnd; in++) {
-			inputDeltas[in] = 0;
-			double inputValue = inputValues[in];
-			for (int out = 0; out < outputSize; out++) {
+			int offset = in * outputSize;
+			inputDeltas[in] = kernels.dot(weights, offset, outputDeltas, 0, outputSize);
+			kernels.axpy(inputValues[in], outputDeltas, 0, gradients, offset, outputSize);
+		}
+	}
+
+	/**
+	 * Request a batch block of deltas, accumulate gradients across the batch and push the block of
+	 * input deltas to the input edge.
+	 */
+	@Override
+	public void backwardBatch() {
 
-				double weight = weights[in][out];
-				double outputDelta = outputDeltas[out];
-				double gradientPrev = gradients[in][out];
-				double gradientCurr = outputDelta * inputValue;
+		checkTrainable();
+		int rows = getCell().getNetwork().getBatchSize();
+		inputBatch = getInputEdge(0).getForwardBatch(rows);
+		outputDeltasBatch = getOutputEdge(0).getBackwardBatch(rows);
+		inputDeltasBatch = new double[rows][inputSize];
 
-				double inputDelta = (weight * outputDelta);
-				inputDeltas[in] += inputDelta;
+		getCell().getNetwork().execute(inputSize, 2 * rows * outputSize, backwardBatchRange);
 
-				double gradient = (momentum * gradientPrev) + (1 - momentum) * gradientCurr;
-				gradients[in][out] = gradient;
+		getInputEdge(0).pushBackward(inputDeltasBatch);
+		accumulated += rows;
+	}
 
-				double weightDelta = learningRate * gradient;
-				weights[in][out] += weightDelta;
+	/**
+	 * Batch backward process from start input indexes to end, included. The gradients of the rows
+	 * are summed, and averaged by the update.
+	 * @param inStart Start input index.
+	 * @param inEnd   End input index, included.
+	 */
+	private void backwardBatch(int inStart, int inEnd) {
+		int rows = inputBatch.length;
+		for (int in = inStart; in <= inEnd; in++) {
+			int offset = in * outputSize;
+			for (int r = 0; r < rows; r++) {
+				double[] deltas = outputDeltasBatch[r];
+				inputDeltasBatch[r][in] = kernels.dot(weights, offset, deltas, 0, outputSize);
+				kernels.axpy(inputBatch[r][in], deltas, 0, gradients, offset, outputSize);
 			}
 		}
 	}
 
+	/**
+	 * Apply the gradients accumulated since the last update with the optimizer, averaged by the
+	 * number of patterns, and clear them.
+	 */
+	@Override
+	public void update(Optimizer optimizer) {
+		if (accumulated == 0) return;
+		checkTrainable();
+		if (state == null || stateOptimizer != optimizer) {
+			state = new double[optimizer.getStateCount()][weights.length];
+			stateOptimizer = optimizer;
+		}
+
+		getCell().getNetwork().execute(inputSize, outputSize, (inStart, inEnd) -> update(optimizer, inStart, inEnd));
+		accumulated = 0;
+	}
+	/**
+	 * Update process from start input index to end, included, clearing the gradients.
+	 * @param optimizer The optimizer.
+	 * @param inStart   Start input index.
+	 * @param inEnd     End input index, included.
+	 */
+	private void update(Optimizer optimizer, int inStart, int inEnd) {
+		int offset = inStart * outputSize;
+		int length = (inEnd - inStart + 1) * outputSize;
+		optimizer.update(weights, gradients, 1.0 / accumulated, state, offset, length);
+		Arrays.fill(gradients, offset, offset + length, 0);
+	}
+
 	/**
 	 * Request values from input edges, apply node calculations and push values to output edges.
 	 */
 	@Override
 	public void forward() {
 
-		inputValues = getInputEdges().get(0).getForwardValues();
-		outputValues = new double[outputSize];
+		inputValues = getInputEdge(0).getForwardValues();
+		outputValues = getOutputEdge(0).acquireForward();
 
-		boolean parallel = getCell().getNetwork().isParallelProcessing();
-		if (!parallel) {
-			int outStart = 0;
-			int outEnd = outputSize - 1;
-			forward(outStart, outEnd);
-		} else {
-			if (forwardTasks == null) {
-				List<Range> ranges = getRanges(outputSize);
-				forwardTasks = new ArrayList<>();
-				for (Range range : ranges) { forwardTasks.add(new TaskForward(range.start, range.end)); }
-			}
-			getCell().getNetwork().getPool().invokeAll(forwardTasks);
-		}
-
-		getOutputEdges().get(0).pushForward(outputValues);
+		getCell().getNetwork().execute(outputSize, inputSize, forwardRange);
 	}
 	/**
-	 * Forward process from start output indexes to end, included.
+	 * Forward process from start output indexes to end, included. Output values are accumulated
+	 * row by row, so that the weights are read sequentially.
 	 * @param outStart Start output index.
 	 * @param outEnd   End output index, included.
 	 */
 	private void forward(int outStart, int outEnd) {
+		int length = outEnd - outStart + 1;
 		for (int out = outStart; out <= outEnd; out++) {
 			outputValues[out] = 0;
+		}
+		for (int in = 0; in < inputSize; in++) {
+			axpy(inputValues[in], in * outputSize + outStart, outputValues, outStart, length);
+		}
+	}
+
+	/**
+	 * Request a batch block of values from the input edge, multiply it by the weights matrix and
+	 * push the block of values to the output edge.
+	 */
+	@Override
+	public void forwardBatch() {
+
+		int rows = getCell().getNetwork().getBatchSize();
+		inputBatch = getInputEdge(0).getForwardBatch(rows);
+		outputBatch = new double[rows][outputSize];
+
+		getCell().getNetwork().execute(rows, inputSize * outputSize, forwardBatchRange);
+
+		getOutputEdge(0).pushForward(outputBatch);
+	}
+	/**
+	 * Batch forward process from start row to end, included.
+	 * @param rowStart Start row.
+	 * @param rowEnd   End row, included.
+	 */
+	private void forwardBatch(int rowStart, int rowEnd) {
+		for (int r = rowStart; r <= rowEnd; r++) {
+			double[] inputRow = inputBatch[r];
+			double[] outputRow = outputBatch[r];
 			for (int in = 0; in < inputSize; in++) {
-				double input = inputValues[in];
-				double weight = weights[in][out];
-				outputValues[out] += (input * weight);
+				axpy(inputRow[in], in * outputSize, outputRow, 0, outputSize);
+			}
+		}
+	}
+	/**
+	 * Stateless forward, the product of the input values by the weights. When the output is the
+	 * input array, the input is copied before clearing the output.
+	 */
+	@Override
+	public void forward(double[][] inputs, double[] output) {
+		double[] input = inputs[0];
+		if (input == output) input = input.clone();
+		Arrays.fill(output, 0);
+		accumulate(input, output);
+	}
+	/**
+	 * Add the product of the input values by the weights to the output values, without changing the
+	 * state of the node, so that frozen networks can fuse it with the following node.
+	 * @param input  The input values.
+	 * @param output The output values, accumulated.
+	 */
+	public void accumulate(double[] input, double[] output) {
+		for (int in = 0; in < inputSize; in++) {
+			axpy(input[in], in * outputSize, output, 0, outputSize);
+		}
+	}
+
+	/**
+	 * Add a range of weights scaled by an input value to a range of output values, reading the
+	 * weights from the current storage, double, float or mapped.
+	 * @param input    The input value.
+	 * @param offset   The offset in the weights.
+	 * @param output   The output values.
+	 * @param outStart The start index in the output values.
+	 * @param length   The length of the ranges.
+	 */
+	private void axpy(double input, int offset, double[] output, int outStart, int length) {
+		if (weights != null) {
+			kernels.axpy(input, weights, offset, output, outStart, length);
+		} else if (weightsFloat != null) {
+			kernels.axpy(input, weightsFloat, offset, output, outStart, length);
+		} else {
+			kernels.axpy(input, weightsMapped, offset, output, outStart, length);
+		}
+	}
+
+	/**
+	 * Return the weights as a flat row-major array, the live storage of the node, or null in float
+	 * precision or with mapped weights.
+	 */
+	@Override
+	public double[] getParameters() { return weights; }
+
+	/**
+	 * Set the storage precision of the weights. Float precision replaces the weights and gradients
+	 * by single precision weights and is inference only, double precision restores double weights
+	 * with zero gradients. Mapped weights are converted to float weights on the heap and kept
+	 * mapped in double precision.
+	 */
+	@Override
+	public void setPrecision(Precision precision) {
+		if (precision == Precision.FLOAT && weightsMapped != null) {
+			weightsFloat = new float[inputSize * outputSize];
+			for (int i = 0; i < weightsFloat.length; i++) {
+				weightsFloat[i] = (float) weightsMapped.getDouble(i * Double.BYTES);
+			}
+			weightsMapped = null;
+		}
+		if (precision == Precision.FLOAT && weightsFloat == null) {
+			weightsFloat = new float[weights.length];
+			for (int i = 0; i < weights.length; i++) {
+				weightsFloat[i] = (float) weights[i];
+			}
+			weights = null;
+			gradients = null;
+			state = null;
+			accumulated = 0;
+		}
+		if (precision == Precision.DOUBLE && weightsFloat != null) {
+			weights = new double[weightsFloat.length];
+			for (int i = 0; i < weightsFloat.length; i++) {
+				weights[i] = weightsFloat[i];
 			}
+			gradients = new double[weightsFloat.length];
+			weightsFloat = null;
 		}
 	}
+	/**
+	 * Check that the node can be trained, that is, it is in double precision and not mapped.
+	 */
+	private void checkTrainable() {
+		if (weightsFloat != null) throw new IllegalStateException("Float precision is inference only");
+		if (weightsMapped != null) throw new IllegalStateException("Mapped weights are inference only");
+		if (gradients == null) throw new IllegalStateException("Frozen weights are inference only");
+	}
 
-	private List<Range> getRanges(int count) {
-		int module = Runtime.getRuntime().availableProcessors();
-		if (module < count / 4) module = count / 4;
-		return Graph.getRanges(count, module);
+	/**
+	 * Release the gradients, the buffers of deltas and the tasks.
+	 */
+	@Override
+	public void freeze() {
+		gradients = null;
+		state = null;
+		accumulated = 0;
+		outputDeltas = null;
+		inputDeltas = null;
+		outputDeltasBatch = null;
+		inputDeltasBatch = null;
+	}
+
+	/**
+	 * Return the weight at the flat index from the current storage.
+	 * @param index The flat index.
+	 * @return The weight.
+	 */
+	private double getWeight(int index) {
+		if (weights != null) return weights[index];
+		if (weightsFloat != null) return weightsFloat[index];
+		return weightsMapped.getDouble(index * Double.BYTES);
 	}
 
 	/**
 	 * Append the particular node definition.
 	 */
-	public void toJSONObject(JSONObject def) {
+	public void toJSONObject(JSONObject def) { toJSONObject(def, true); }
+	/**
+	 * Append the particular node definition, optionally without the weights.
+	 */
+	@Override
+	public void toJSONObject(JSONObject def, boolean parameters) {
 		def.put("input-size", inputSize);
 		def.put("output-size", outputSize);
-		def.put("learning-rate", learningRate);
-		def.put("learning-rate-min", learningRateMin);
-		def.put("decay-module", decayModule);
-		def.put("decay-factor", decayFactor);
-		def.put("momentum", momentum);
+		if (!parameters) return;
 		JSONArray arrIn = new JSONArray();
 		for (int in = 0; in < inputSize; in++) {
 			JSONArray arrOut = new JSONArray();
 			for (int out = 0; out < outputSize; out++) {
-				arrOut.add(weights[in][out]);
+				int index = in * outputSize + out;
+				arrOut.add(getWeight(index));
 			}
 			arrIn.add(arrOut);
 		}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.kernel;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Numeric kernels of the hot loops of the network nodes, over ranges of double arrays.
+ * <p>
+ * The implementation is chosen once at runtime: the SIMD kernels of <i>VectorKernels</i> when the
+ * class is on the class path and the <i>jdk.incubator.vector</i> module is present in the boot
+ * layer (run with <i>--add-modules jdk.incubator.vector</i>), and the scalar kernels otherwise. The
+ * system property <i>com.msfx.lib.ml.kernels=scalar</i> forces the scalar kernels.
+ * <p>
+ * <i>VectorKernels</i> lives in the separate source root <i>src-vector</i>, compiled after this
+ * package with <i>--add-modules jdk.incubator.vector</i>, so that the library compiles without the
+ * incubator module and is only loaded here by reflection.
+ *
+ * @author Miquel Sas
+ */
+public abstract class Kernels {
+
+	/** Name of the system property to select the kernels. */
+	public static final String PROPERTY = "com.msfx.lib.ml.kernels";
+
+	/** Scalar kernels. */
+	private static final Kernels SCALAR = new ScalarKernels();
+	/** Default kernels. */
+	private static final Kernels DEFAULT = create();
+
+	/**
+	 * Return the default kernels.
+	 *
+	 * @return The kernels.
+	 */
+	public static Kernels get() { return DEFAULT; }
+	/**
+	 * Return the scalar kernels.
+	 *
+	 * @return The scalar kernels.
+	 */
+	public static Kernels scalar() { return SCALAR; }
+
+	/**
+	 * Create the default kernels, falling back to the scalar kernels if the vector kernels or the
+	 * vector module are not available, or fail to load.
+	 *
+	 * @return The kernels.
+	 */
+	private static Kernels create() {
+		if (!"scalar".equals(System.getProperty(PROPERTY))
+			&& ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+			try {
+				Class<?> cls = Class.forName("com.msfx.lib.ml.kernel.VectorKernels");
+				return (Kernels) cls.getDeclaredConstructor().newInstance();
+			} catch (Throwable exc) {
+				/* Fall back to scalar. */
+			}
+		}
+		return SCALAR;
+	}
+
+	/**
+	 * Constructor.
+	 */
+	protected Kernels() { }
+
+	/**
+	 * Return the name of the kernels.
+	 *
+	 * @return The name.
+	 */
+	public abstract String getName();
+
+	/**
+	 * Add a scaled range of x to a range of y, <i>y += a * x</i>.
+	 *
+	 * @param a       The scale.
+	 * @param x       The x array.
+	 * @param xOffset The offset in x.
+	 * @param y       The y array, updated.
+	 * @param yOffset The offset in y.
+	 * @param length  The length of the ranges.
+	 */
+	public abstract void axpy(double a, double[] x, int xOffset, double[] y, int yOffset, int length);
+	/**
+	 * Add a scaled range of single precision x to a range of y, <i>y += a * x</i>.
+	 *
+	 * @param a       The scale.
+	 * @param x       The single precision x array.
+	 * @param xOffset The offset in x.
+	 * @param y       The y array, updated.
+	 * @param yOffset The offset in y.
+	 * @param length  The length of the ranges.
+	 */
+	public abstract void axpy(double a, float[] x, int xOffset, double[] y, int yOffset, int length);
+	/**
+	 * Add a scaled range of x stored as little-endian doubles in a byte buffer, like a region mapped
+	 * from a file, to a range of y, <i>y += a * x</i>.
+	 *
+	 * @param a       The scale.
+	 * @param x       The x buffer, little-endian doubles.
+	 * @param xOffset The offset in x, in doubles.
+	 * @param y       The y array, updated.
+	 * @param yOffset The offset in y.
+	 * @param length  The length of the ranges.
+	 */
+	public abstract void axpy(double a, ByteBuffer x, int xOffset, double[] y, int yOffset, int length);
+	/**
+	 * Return the dot product of a range of x and a range of y.
+	 *
+	 * @param x       The x array.
+	 * @param xOffset The offset in x.
+	 * @param y       The y array.
+	 * @param yOffset The offset in y.
+	 * @param length  The length of the ranges.
+	 * @return The dot product.
+	 */
+	public abstract double dot(double[] x, int xOffset, double[] y, int yOffset, int length);
+	/**
+	 * Soft-max of a range of x into the same range of y, with the maximum subtracted so that large
+	 * values do not overflow. The y array can be the x array.
+	 *
+	 * @param x      The x array.
+	 * @param y      The y array, updated.
+	 * @param offset The offset of the range in both arrays.
+	 * @param length The length of the range.
+	 */
+	public abstract void softMax(double[] x, double[] y, int offset, int length);
+	/**
+	 * Return the logarithm of the sum of the exponentials of a range of x, with the maximum
+	 * subtracted so that large values do not overflow.
+	 *
+	 * @param x      The x array.
+	 * @param offset The offset of the range.
+	 * @param length The length of the range.
+	 * @return The log-sum-exp.
+	 */
+	public abstract double logSumExp(double[] x, int offset, int length);
+	/**
+	 * Momentum update of a range of weights with accumulated gradients at the same offset:
+	 * <i>v = momentum * v + (1 - momentum) * gradients * scale</i> and <i>w += rate * v</i>.
+	 *
+	 * @param weights      The weights, updated.
+	 * @param velocity     The velocity, updated.
+	 * @param gradients    The accumulated gradients.
+	 * @param scale        The scale of the gradients, the inverse of the number accumulated.
+	 * @param momentum     The momentum.
+	 * @param learningRate The learning rate.
+	 * @param offset       The offset of the range in all the arrays.
+	 * @param length       The length of the range.
+	 */
+	public abstract void momentum(
+		double[] weights,
+		double[] velocity,
+		double[] gradients,
+		double scale,
+		double momentum,
+		double learningRate,
+		int offset,
+		int length);
+}
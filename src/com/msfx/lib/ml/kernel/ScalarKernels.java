@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.kernel;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Scalar kernels, plain loops in index order.
+ *
+ * @author Miquel Sas
+ */
+public class ScalarKernels extends Kernels {
+
+	/**
+	 * Constructor.
+	 */
+	public ScalarKernels() { }
+
+	@Override
+	public String getName() { return "scalar"; }
+
+	@Override
+	public void axpy(double a, double[] x, int xOffset, double[] y, int yOffset, int length) {
+		for (int i = 0; i < length; i++) {
+			y[yOffset + i] += (a * x[xOffset + i]);
+		}
+	}
+
+	@Override
+	public void axpy(double a, float[] x, int xOffset, double[] y, int yOffset, int length) {
+		for (int i = 0; i < length; i++) {
+			y[yOffset + i] += (a * x[xOffset + i]);
+		}
+	}
+
+	@Override
+	public void axpy(double a, ByteBuffer x, int xOffset, double[] y, int yOffset, int length) {
+		ByteBuffer buffer = (x.order() == ByteOrder.LITTLE_ENDIAN ? x : x.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+		for (int i = 0; i < length; i++) {
+			y[yOffset + i] += (a * buffer.getDouble((xOffset + i) * Double.BYTES));
+		}
+	}
+
+	@Override
+	public double dot(double[] x, int xOffset, double[] y, int yOffset, int length) {
+		double sum = 0;
+		for (int i = 0; i < length; i++) {
+			sum += (x[xOffset + i] * y[yOffset + i]);
+		}
+		return sum;
+	}
+
+	@Override
+	public void softMax(double[] x, double[] y, int offset, int length) {
+		double max = max(x, offset, length);
+		double sum = 0;
+		for (int i = offset; i < offset + length; i++) {
+			double e = Math.exp(x[i] - max);
+			y[i] = e;
+			sum += e;
+		}
+		double div = 1.0 / sum;
+		for (int i = offset; i < offset + length; i++) {
+			y[i] *= div;
+		}
+	}
+
+	@Override
+	public double logSumExp(double[] x, int offset, int length) {
+		double max = max(x, offset, length);
+		double sum = 0;
+		for (int i = offset; i < offset + length; i++) {
+			sum += Math.exp(x[i] - max);
+		}
+		return max + Math.log(sum);
+	}
+
+	/**
+	 * Return the maximum of a range of x.
+	 *
+	 * @param x      The x array.
+	 * @param offset The offset of the range.
+	 * @param length The length of the range.
+	 * @return The maximum.
+	 */
+	private static double max(double[] x, int offset, int length) {
+		double max = Double.NEGATIVE_INFINITY;
+		for (int i = offset; i < offset + length; i++) {
+			if (x[i] > max) max = x[i];
+		}
+		return max;
+	}
+
+	@Override
+	public void momentum(
+		double[] weights,
+		double[] velocity,
+		double[] gradients,
+		double scale,
+		double momentum,
+		double learningRate,
+		int offset,
+		int length) {
+		for (int i = 0; i < length; i++) {
+			int index = offset + i;
+			double v = (momentum * velocity[index]) + (1 - momentum) * (gradients[index] * scale);
+			velocity[index] = v;
+			weights[index] += learningRate * v;
+		}
+	}
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.msfx.lib.ml.serving;
+
+import com.msfx.lib.ml.graph.Batch;
+import com.msfx.lib.ml.graph.Network;
+import com.msfx.lib.task.ExecPool;
+import com.msfx.lib.task.Task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Front end that collects concurrent prediction requests into mini-batches, runs one batched
+ * forward pass of the network per mini-batch, and completes the future of each request.
+ * <p>
+ * A batch is processed when it reaches the maximum batch size, or when the first request of the
+ * batch has waited the maximum wait, thus the maximum wait bounds the latency added to a request.
+ * The batches are processed by a single task submitted to an <i>ExecPool</i>, that occupies one
+ * thread of the pool while the predictor is running. The network is owned by the predictor and
+ * must not be used by other threads while the predictor runs, use a copy if necessary.
+ *
+ * @author Miquel Sas
+ */
+public class BatchPredictor {
+
+	/**
+	 * A prediction request.
+	 */
+	private static class Request {
+		/** Input values. */
+		private final List<double[]> inputValues;
+		/** Future of the output values. */
+		private final CompletableFuture<List<double[]>> future = new CompletableFuture<>();
+		/** Enqueue time in nanoseconds. */
+		private final long time = System.nanoTime();
+		/** Constructor. */
+		private Request(List<double[]> inputValues) { this.inputValues = inputValues; }
+	}
+
+	/**
+	 * The task that collects and processes the batches.
+	 */
+	private class Worker extends Task {
+		@Override
+		public void execute() throws Throwable {
+			List<Request> batch = new ArrayList<>();
+			try {
+				while (!shouldCancel()) {
+					Request first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+					if (first == null) continue;
+					batch.add(first);
+					long deadline = first.time + maxWaitNanos;
+					while (batch.size() < maxBatchSize) {
+						long remaining = deadline - System.nanoTime();
+						Request request = (remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null);
+						if (request == null) {
+							queue.drainTo(batch, maxBatchSize - batch.size());
+							break;
+						}
+						batch.add(request);
+					}
+					process(batch);
+					batch.clear();
+				}
+			} catch (InterruptedException exc) {
+				Thread.currentThread().interrupt();
+			} finally {
+				running = false;
+				fail(batch);
+				List<Request> pending = new ArrayList<>();
+				queue.drainTo(pending);
+				fail(pending);
+			}
+			setCancelled();
+		}
+	}
+
+	/** Milliseconds to wait for requests before checking cancel. */
+	private static final long POLL_MILLIS = 100;
+
+	/** The network. */
+	private final Network network;
+	/** Sizes of the input edges. */
+	private final List<Integer> inputSizes;
+	/** The pool that executes the worker. */
+	private final ExecPool pool;
+	/** Queue of pending requests, bounded by the maximum queue depth. */
+	private volatile BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+
+	/** Maximum batch size. */
+	private int maxBatchSize = 32;
+	/** Maximum wait of the first request of a batch in nanoseconds. */
+	private long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(2);
+
+	/** The worker task, while running. */
+	private Worker worker;
+	/** A boolean that indicates whether the predictor accepts requests. */
+	private volatile boolean running = false;
+
+	/** Number of requests processed. */
+	private final AtomicLong requestCount = new AtomicLong();
+	/** Number of batches processed. */
+	private final AtomicLong batchCount = new AtomicLong();
+	/** Number of requests rejected. */
+	private final AtomicLong rejectedCount = new AtomicLong();
+	/** Accumulated queue wait of processed requests in nanoseconds. */
+	private final AtomicLong waitNanos = new AtomicLong();
+	/** Peak queue depth. */
+	private final AtomicInteger peakQueueDepth = new AtomicInteger();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param network The initialized network, owned by the predictor while running.
+	 * @param pool    The pool to execute the worker task.
+	 */
+	public BatchPredictor(Network network, ExecPool pool) {
+		this.network = network;
+		this.inputSizes = network.getInputSizes();
+		this.pool = pool;
+	}
+
+	/**
+	 * Set the maximum batch size.
+	 *
+	 * @param maxBatchSize The maximum number of requests of a batch.
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		if (maxBatchSize < 1) throw new IllegalArgumentException("Invalid batch size " + maxBatchSize);
+		this.maxBatchSize = maxBatchSize;
+	}
+	/**
+	 * Set the maximum time that the first request of a batch waits for more requests.
+	 *
+	 * @param maxWait The maximum wait, zero to not wait.
+	 * @param unit    The time unit.
+	 */
+	public void setMaxWait(long maxWait, TimeUnit unit) {
+		if (maxWait < 0) throw new IllegalArgumentException("Invalid wait " + maxWait);
+		this.maxWaitNanos = unit.toNanos(maxWait);
+	}
+	/**
+	 * Set the maximum number of pending requests, requests beyond are rejected. Must be set while
+	 * the predictor is stopped.
+	 *
+	 * @param maxQueueDepth The maximum queue depth.
+	 */
+	public synchronized void setMaxQueueDepth(int maxQueueDepth) {
+		if (maxQueueDepth < 1) throw new IllegalArgumentException("Invalid queue depth " + maxQueueDepth);
+		if (running) throw new IllegalStateException("Predictor running");
+		this.queue = new LinkedBlockingQueue<>(maxQueueDepth);
+	}
+
+	/**
+	 * Start accepting and processing requests.
+	 */
+	public synchronized void start() {
+		if (running) return;
+		running = true;
+		worker = new Worker();
+		pool.submit(worker);
+	}
+	/**
+	 * Stop processing requests. Pending requests are completed with a cancellation exception.
+	 */
+	public synchronized void stop() {
+		if (worker == null) return;
+		running = false;
+		worker.requestCancel();
+		pool.waitForTermination(List.of(worker));
+		worker = null;
+	}
+	/**
+	 * Check whether the predictor is running.
+	 *
+	 * @return A boolean.
+	 */
+	public boolean isRunning() { return running; }
+
+	/**
+	 * Request a prediction.
+	 *
+	 * @param inputValues The list of input values, in the same order as the network input edges.
+	 * @return The future of the list of output values, in the same order as the network output
+	 *         edges.
+	 */
+	public CompletableFuture<List<double[]>> predict(List<double[]> inputValues) {
+		Request request = new Request(inputValues);
+		if (!running) {
+			rejectedCount.incrementAndGet();
+			request.future.completeExceptionally(new IllegalStateException("Predictor not running"));
+			return request.future;
+		}
+		if (!checkSizes(inputValues)) {
+			rejectedCount.incrementAndGet();
+			request.future.completeExceptionally(new IllegalArgumentException("Invalid input values size"));
+			return request.future;
+		}
+		if (!queue.offer(request)) {
+			rejectedCount.incrementAndGet();
+			request.future.completeExceptionally(new RejectedExecutionException("Queue full"));
+			return request.future;
+		}
+		peakQueueDepth.accumulateAndGet(queue.size(), Math::max);
+		/* The worker may have stopped after the check. */
+		if (!running && queue.remove(request)) fail(List.of(request));
+		return request.future;
+	}
+
+	/**
+	 * Check the sizes of the input values.
+	 *
+	 * @param inputValues The list of input values.
+	 * @return A boolean.
+	 */
+	private boolean checkSizes(List<double[]> inputValues) {
+		if (inputValues.size() != inputSizes.size()) return false;
+		for (int i = 0; i < inputSizes.size(); i++) {
+			if (inputValues.get(i).length != inputSizes.get(i)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Process a batch of requests.
+	 *
+	 * @param batch The list of requests.
+	 */
+	private void process(List<Request> batch) {
+		long now = System.nanoTime();
+		try {
+			Batch inputBatch = new Batch(batch.size(), network.getInputSizes());
+			for (int r = 0; r < batch.size(); r++) {
+				inputBatch.setRow(r, batch.get(r).inputValues);
+			}
+			network.forward(inputBatch);
+			Batch outputBatch = network.getOutputBatch();
+			network.unfold();
+			for (int r = 0; r < batch.size(); r++) {
+				List<double[]> outputValues = new ArrayList<>();
+				for (double[] values : outputBatch.getRow(r)) {
+					outputValues.add(values.clone());
+				}
+				batch.get(r).future.complete(outputValues);
+			}
+		} catch (RuntimeException exc) {
+			network.unfold();
+			for (Request request : batch) {
+				request.future.completeExceptionally(exc);
+			}
+		}
+		for (Request request : batch) {
+			waitNanos.addAndGet(now - request.time);
+		}
+		requestCount.addAndGet(batch.size());
+		batchCount.incrementAndGet();
+	}
+	/**
+	 * Complete the requests with a cancellation exception.
+	 *
+	 * @param requests The list of requests.
+	 */
+	private static void fail(List<Request> requests) {
+		for (Request request : requests) {
+			request.future.completeExceptionally(new CancellationException("Predictor stopped"));
+		}
+	}
+
+	/**
+	 * Return the current number of pending requests.
+	 *
+	 * @return The queue depth.
+	 */
+	public int getQueueDepth() { return queue.size(); }
+	/**
+	 * Return the peak number of pending requests.
+	 *
+	 * @return The peak queue depth.
+	 */
+	public int getPeakQueueDepth() { return peakQueueDepth.get(); }
+	/**
+	 * Return the number of requests processed.
+	 *
+	 * @return The number of requests.
+	 */
+	public long getRequestCount() { return requestCount.get(); }
+	/**
+	 * Return the number of batches processed.
+	 *
+	 * @return The number of batches.
+	 */
+	public long getBatchCount() { return batchCount.get(); }
+	/**
+	 * Return the number of requests rejected, because the queue was full, the predictor was not
+	 * running or the input sizes were invalid.
+	 *
+	 * @return The number of rejected requests.
+	 */
+	public long getRejectedCount() { return rejectedCount.get(); }
+	/**
+	 * Return the average number of requests per batch.
+	 *
+	 * @return The average batch size.
+	 */
+	public double getAverageBatchSize() {
+		long batches = batchCount.get();
+		return (batches == 0 ? 0 : (double) requestCount.get() / batches);
+	}
+	/**
+	 * Return the average time that requests waited in the queue, in milliseconds.
+	 *
+	 * @return The average wait.
+	 */
+	public double getAverageWaitMillis() {
+		long requests = requestCount.get();
+		return (requests == 0 ? 0 : waitNanos.get() / 1.0e6 / requests);
+	}
+}
@@ -15,16 +15,23 @@
  */
 package com.msfx.lib.ml.training;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import com.msfx.lib.ml.function.Matcher;
 import com.msfx.lib.ml.function.match.CategoryMatcher;
 import com.msfx.lib.util.Numbers;
-import com.msfx.lib.util.Vector;
 
 /**
  * Metrics used to evaluate the performance in a supervised learning training process.
+ * <p>
+ * Metrics are accumulated incrementally without allocating: the sums of the absolute errors of
+ * each output value, a running mean and variance of the mean absolute error of each pattern with
+ * Welford's algorithm, and a confusion matrix per output, of the index of the maximum of the
+ * pattern output by the index of the maximum of the network output, or of the values thresholded
+ * at 0.5 for outputs of length one. The track is calculated lazily when requested.
+ * <p>
+ * Metrics are thread-safe, and partial metrics computed by parallel workers can be merged.
  * 
  * @author Miquel Sas
  */
@@ -40,25 +47,35 @@ public class SLMetrics {
 			/** Average absolute error standard deviation. */
 			double errorStd,
 			/** Performance. */
-			double performance) {}
+			double performance,
+			/** Standard deviation among patterns of the mean absolute error of each pattern. */
+			double patternErrorStd) {}
 
-	/** M-Squared vector. */
-	private List<double[]> errors;
 	/** Match function, default is match category. */
 	private Matcher matcher = new CategoryMatcher();
 
 	/** List of lengths of the arrays of pattern and network output. */
-	private int[] lengths;
+	private final int[] lengths;
+	/** Offsets of the outputs in the flat arrays. */
+	private final int[] offsets;
+	/** Sums of the absolute errors of the output values, flat. */
+	private final double[] errorSums;
+	/** Reusable buffer of the mean absolute errors of the output values. */
+	private final double[] errorMeans;
+	/** Confusion matrices by output, [pattern category][network category]. */
+	private final long[][][] confusion;
 
 	/** Number of matches. */
 	private int matches;
 	/** Calls to compute. */
 	private int calls;
+	/** Running mean of the mean absolute error of the patterns. */
+	private double patternMean;
+	/** Running sum of squared differences to the mean of the pattern errors. */
+	private double patternM2;
 
-	/** Average absolute error. */
-	private double errorAvg;
-	/** Average absolute error standard deviation. */
-	private double errorStd;
+	/** Last track calculated, null if the metrics changed since. */
+	private Track track;
 
 	/**
 	 * Constructor.
@@ -72,7 +89,18 @@ public class SLMetrics {
 	 */
 	public SLMetrics(int... lengths) {
 		if (lengths == null || lengths.length == 0) throw new IllegalArgumentException();
-		this.lengths = lengths;
+		this.lengths = lengths.clone();
+		this.offsets = new int[lengths.length];
+		this.confusion = new long[lengths.length][][];
+		int size = 0;
+		for (int i = 0; i < lengths.length; i++) {
+			offsets[i] = size;
+			size += lengths[i];
+			int categories = Math.max(lengths[i], 2);
+			confusion[i] = new long[categories][categories];
+		}
+		this.errorSums = new double[size];
+		this.errorMeans = new double[size];
 		reset();
 	}
 
@@ -81,7 +109,7 @@ public class SLMetrics {
 	 * @param patternOutput The pattern output.
 	 * @param networkOutput The network output.
 	 */
-	public void compute(List<double[]> patternOutput, List<double[]> networkOutput) {
+	public synchronized void compute(List<double[]> patternOutput, List<double[]> networkOutput) {
 
 		boolean valid = true;
 		valid &= (patternOutput.size() == lengths.length);
@@ -92,59 +120,159 @@ public class SLMetrics {
 		}
 		if (!valid) throw new IllegalArgumentException();
 
+		double patternError = 0;
 		for (int i = 0; i < lengths.length; i++) {
 			double[] pattern = patternOutput.get(i);
 			double[] network = networkOutput.get(i);
-			double[] error = errors.get(i);
+			int offset = offsets[i];
 			for (int j = 0; j < lengths[i]; j++) {
-				error[j] += Math.abs(pattern[j] - network[j]);
+				double error = Math.abs(pattern[j] - network[j]);
+				errorSums[offset + j] += error;
+				patternError += error;
 			}
+			confusion[i][getCategory(pattern)][getCategory(network)]++;
 		}
+		patternError /= errorSums.length;
 
 		if (matcher.match(patternOutput, networkOutput)) {
 			matches++;
 		}
 
 		calls++;
-		int length = 0;
-		for (int len : lengths) { length += len; }
-		double[] error = new double[length];
+		double delta = patternError - patternMean;
+		patternMean += delta / calls;
+		patternM2 += delta * (patternError - patternMean);
+		track = null;
+	}
+
+	/**
+	 * Return the category of an output, the index of the maximum value, or the value thresholded at
+	 * 0.5 for outputs of length one.
+	 * @param output The output.
+	 * @return The category.
+	 */
+	private static int getCategory(double[] output) {
+		if (output.length == 1) return (output[0] >= 0.5 ? 1 : 0);
 		int index = 0;
-		for (int i = 0; i < lengths.length; i++) {
-			for (int j = 0; j < lengths[i]; j++) {
-				error[index++] = errors.get(i)[j] / calls;
+		double max = Double.NEGATIVE_INFINITY;
+		for (int j = 0; j < output.length; j++) {
+			if (output[j] > max) {
+				max = output[j];
+				index = j;
 			}
 		}
-		errorAvg = Vector.mean(error);
-		errorStd = Vector.stddev(error, errorAvg);
+		return index;
 	}
 
 	/**
 	 * Returns a track with the current metrics.
 	 * @return The track with the current metrics.
 	 */
-	public Track getTrack() {
+	public synchronized Track getTrack() {
+		if (track != null) return track;
+		double errorAvg = 0;
+		double errorStd = 0;
+		if (calls > 0) {
+			for (int i = 0; i < errorSums.length; i++) {
+				errorMeans[i] = errorSums[i] / calls;
+				errorAvg += errorMeans[i];
+			}
+			errorAvg /= errorMeans.length;
+			if (errorMeans.length > 1) {
+				for (double error : errorMeans) {
+					errorStd += (error - errorAvg) * (error - errorAvg);
+				}
+				errorStd = Math.sqrt(errorStd / (errorMeans.length - 1));
+			}
+		}
 		double performance = (calls == 0 ? 0.0 : (double) matches / (double) calls);
-		return new Track(matches, calls, errorAvg, errorStd, performance);
+		double patternErrorStd = (calls > 1 ? Math.sqrt(patternM2 / (calls - 1)) : 0.0);
+		track = new Track(matches, calls, errorAvg, errorStd, performance, patternErrorStd);
+		return track;
+	}
+
+	/**
+	 * Return a copy of the confusion matrix of an output, indexed by the category of the pattern
+	 * output and the category of the network output.
+	 * @param output The index of the output.
+	 * @return The confusion matrix.
+	 */
+	public synchronized long[][] getConfusionMatrix(int output) {
+		long[][] matrix = new long[confusion[output].length][];
+		for (int i = 0; i < matrix.length; i++) {
+			matrix[i] = confusion[output][i].clone();
+		}
+		return matrix;
+	}
+
+	/**
+	 * Merge the metrics computed by another instance with the same lengths, for instance by a
+	 * parallel worker, into this metrics.
+	 * @param other The other metrics.
+	 */
+	public void merge(SLMetrics other) {
+		if (other == this) throw new IllegalArgumentException("Cannot merge metrics with itself");
+		if (!Arrays.equals(lengths, other.lengths)) throw new IllegalArgumentException("Lengths do not match");
+
+		/* Snapshot the other metrics, so that only one lock is held at a time. */
+		double[] sums;
+		long[][][] matrices;
+		int otherMatches, otherCalls;
+		double otherMean, otherM2;
+		synchronized (other) {
+			if (other.calls == 0) return;
+			sums = other.errorSums.clone();
+			matrices = new long[other.confusion.length][][];
+			for (int i = 0; i < matrices.length; i++) {
+				matrices[i] = other.getConfusionMatrix(i);
+			}
+			otherMatches = other.matches;
+			otherCalls = other.calls;
+			otherMean = other.patternMean;
+			otherM2 = other.patternM2;
+		}
+
+		synchronized (this) {
+			for (int i = 0; i < errorSums.length; i++) {
+				errorSums[i] += sums[i];
+			}
+			for (int i = 0; i < confusion.length; i++) {
+				for (int p = 0; p < confusion[i].length; p++) {
+					for (int n = 0; n < confusion[i][p].length; n++) {
+						confusion[i][p][n] += matrices[i][p][n];
+					}
+				}
+			}
+			int total = calls + otherCalls;
+			double delta = otherMean - patternMean;
+			patternMean += delta * otherCalls / total;
+			patternM2 += otherM2 + delta * delta * ((double) calls * otherCalls / total);
+			matches += otherMatches;
+			calls = total;
+			track = null;
+		}
 	}
 
 	/**
 	 * Reset.
 	 */
-	public void reset() {
-		errors = new ArrayList<double[]>();
-		for (int length : lengths) {
-			errors.add(new double[length]);
+	public synchronized void reset() {
+		Arrays.fill(errorSums, 0);
+		for (long[][] matrix : confusion) {
+			for (long[] row : matrix) {
+				Arrays.fill(row, 0);
+			}
 		}
 		matches = 0;
 		calls = 0;
-		errorAvg = 0;
-		errorStd = 0;
+		patternMean = 0;
+		patternM2 = 0;
+		track = null;
 	}
 
 	/**
 	 * Set the matcher.
 	 * @param matcher The matcher.
 	 */
-	public void setMatcher(Matcher matcher) { this.matcher = matcher; }
+	public synchronized void setMatcher(Matcher matcher) { this.matcher = matcher; }
 }
@@ -19,20 +19,31 @@
 package com.msfx.lib.ml.training;
 
 import java.math.BigDecimal;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import com.msfx.lib.ml.data.Pattern;
 import com.msfx.lib.ml.data.PatternSource;
+import com.msfx.lib.ml.graph.Batch;
+import com.msfx.lib.ml.graph.InferenceContext;
 import com.msfx.lib.ml.graph.Network;
+import com.msfx.lib.task.ExecPool;
+import com.msfx.lib.task.Task;
 import com.msfx.lib.task.TaskProgress;
 import com.msfx.lib.util.Console;
 import com.msfx.lib.util.Numbers;
 import com.msfx.lib.util.Strings;
-import com.msfx.lib.util.Vector;
 
 /**
  * Supervised Learning trainer.
+ * <p>
+ * When a test source is set, after each epoch a frozen snapshot of the network is scored on the
+ * test source by a task of a separate pool, while the next epoch trains. The test results of an
+ * epoch are thus reported after the next epoch, and early stopping, if enabled, stops training one
+ * epoch after the epoch that exhausted the patience. The best epoch is the one with the lowest
+ * average test error.
  * 
  * @author Miquel Sas
  */
@@ -52,9 +63,51 @@ public class SLTrainer extends TaskProgress {
 
 	/** Number of epochs or iterations on the train source, default to 100. */
 	private int epochs = 100;
+	/** Number of patterns per mini-batch, default to 1 that trains one pattern at a time. */
+	private int batchSize = 1;
+	/** Number of data-parallel workers, each one training a replica of the network. */
+	private int workers = 1;
+	/** Number of patterns each worker trains between averages of the replicas. */
+	private int syncPatterns = 100;
+
+	/** Number of test evaluations without improvement before stopping, zero to never stop early. */
+	private int patience = 0;
+	/** A boolean that indicates whether to restore the parameters of the best epoch at the end. */
+	private boolean restoreBest = false;
+	/** Optional checkpoint file where the network of the best epoch is saved. */
+	private Path bestCheckpoint;
 
 	/** Optional console to output additional information. */
 	private Console console;
+	/** A boolean that indicates whether the console header has been printed. */
+	private boolean consoleHeader;
+
+	/** Reusable list of network output deltas. */
+	private List<double[]> networkDeltas;
+	/** Reusable batch of input values. */
+	private Batch inputBatch;
+	/** Reusable batch of pattern output values. */
+	private Batch outputBatch;
+
+	/** Pool to run the workers. */
+	private ExecPool pool;
+	/** List of workers. */
+	private List<Worker> workerList;
+	/** List of network replicas trained by the workers. */
+	private List<Network> replicas;
+
+	/** Pool to run the test evaluations. */
+	private ExecPool testPool;
+	/** Last test track. */
+	private SLMetrics.Track testTrack;
+	/** Best test track. */
+	private SLMetrics.Track bestTrack;
+	/** Best epoch, zero based, or -1. */
+	private int bestEpoch = -1;
+	/** Frozen snapshot of the best epoch, retained to restore it. */
+	private Network bestNetwork;
+	/** Number of consecutive test evaluations without improvement. */
+	private int staleEpochs;
 
 	/**
 	 * Constructor setting two levels of progress.
@@ -66,13 +119,45 @@ public class SLTrainer extends TaskProgress {
 	 * @param epochs The number of epochs.
 	 */
 	public void setEpochs(int epochs) { this.epochs = epochs; }
+	/**
+	 * Set the number of patterns per mini-batch. With a size greater than one, patterns are
+	 * forwarded and backwarded in batches, and gradients are applied once per batch.
+	 * @param batchSize The batch size.
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) throw new IllegalArgumentException("Invalid batch size " + batchSize);
+		this.batchSize = batchSize;
+	}
+	/**
+	 * Set the number of data-parallel workers. With more than one worker, the network is copied
+	 * into one replica per worker, workers pull patterns from the shared train source, and every
+	 * <i>syncPatterns</i> patterns per worker the replicas are averaged into the network and the
+	 * result copied back to the replicas.
+	 * @param workers The number of workers.
+	 */
+	public void setWorkers(int workers) {
+		if (workers < 1) throw new IllegalArgumentException("Invalid number of workers " + workers);
+		this.workers = workers;
+	}
+	/**
+	 * Set the number of patterns each worker trains between averages of the replicas.
+	 * @param syncPatterns The number of patterns.
+	 */
+	public void setSyncPatterns(int syncPatterns) {
+		if (syncPatterns < 1) throw new IllegalArgumentException("Invalid sync patterns " + syncPatterns);
+		this.syncPatterns = syncPatterns;
+	}
 	/**
 	 * Set the network.
 	 * @param network The network.
 	 */
 	public void setNetwork(Network network) { this.network = network; }
 	/**
-	 * Set the test source.
+	 * Set the test source. The test source is iterated on the test thread while training goes on,
+	 * thus it must not share mutable state with the train source: it can not be the same source,
+	 * nor a source that shares a flyweight pattern with it. Views of the same source, like the
+	 * train and test views of an <i>IndexedPatternSource</i> split, can be used because each view
+	 * reads into its own flyweight.
 	 * @param sourceTest The test source of patterns.
 	 */
 	public void setSourceTest(PatternSource sourceTest) { this.sourceTest = sourceTest; }
@@ -86,6 +171,43 @@ public class SLTrainer extends TaskProgress {
 	 * @param cs The console.
 	 */
 	public void setConsole(Console cs) { this.console = cs; }
+	/**
+	 * Set the number of test evaluations without improvement of the average test error after which
+	 * training stops. Requires a test source.
+	 * @param patience The patience, zero to never stop early.
+	 */
+	public void setPatience(int patience) {
+		if (patience < 0) throw new IllegalArgumentException("Invalid patience " + patience);
+		this.patience = patience;
+	}
+	/**
+	 * Set whether to restore the parameters of the best test epoch into the network at the end of
+	 * the training. Requires a test source.
+	 * @param restoreBest A boolean.
+	 */
+	public void setRestoreBest(boolean restoreBest) { this.restoreBest = restoreBest; }
+	/**
+	 * Set the checkpoint file where the network is saved each time the test error improves.
+	 * Requires a test source.
+	 * @param bestCheckpoint The checkpoint file, or null.
+	 */
+	public void setBestCheckpoint(Path bestCheckpoint) { this.bestCheckpoint = bestCheckpoint; }
+
+	/**
+	 * Return the track of the last test evaluation.
+	 * @return The test track, or null.
+	 */
+	public SLMetrics.Track getTestTrack() { return testTrack; }
+	/**
+	 * Return the track of the best test evaluation.
+	 * @return The best test track, or null.
+	 */
+	public SLMetrics.Track getBestTrack() { return bestTrack; }
+	/**
+	 * Return the best epoch, zero based.
+	 * @return The best epoch, or -1 if there was no test evaluation.
+	 */
+	public int getBestEpoch() { return bestEpoch; }
 
 	/**
 	 * Execute this trainer task.
@@ -96,23 +218,49 @@ public class SLTrainer extends TaskProgress {
 		/* Validate. */
 		if (network == null) throw new IllegalStateException("Null network");
 		if (sourceTrain == null) throw new IllegalStateException("Null training source");
+		if (sourceTest == sourceTrain) throw new IllegalStateException("Test source is the training source");
 
 		/* Start monitor. */
 		getMonitor().notifyStart(LEVEL_EPOCH);
 
-		/* Initialize the network. */
+		/* Initialize the network and the reusable output deltas and batches. */
 		network.initialize();
+		networkDeltas = getDeltas(network);
+		inputBatch = new Batch(batchSize, network.getInputSizes());
+		outputBatch = new Batch(batchSize, network.getOutputSizes());
+
+		/* Replicas and workers when data-parallel. */
+		if (workers > 1) {
+			pool = new ExecPool("SLTRAINER", workers);
+			workerList = new ArrayList<>();
+			replicas = new ArrayList<>();
+			for (int i = 0; i < workers; i++) {
+				Network replica = network.copy();
+				replica.getOptimizer().copySchedule(network.getOptimizer());
+				replicas.add(replica);
+				workerList.add(new Worker(replica));
+			}
+		}
 
 		/* Total work and work done. */
 		long totalWork = sourceTrain.size() * epochs;
 		long totalDone = 0;
 
+		/* Test pool and best epoch. */
+		Evaluator evaluator = null;
+		testTrack = null;
+		bestTrack = null;
+		bestEpoch = -1;
+		bestNetwork = null;
+		staleEpochs = 0;
+		if (sourceTest != null) testPool = new ExecPool("SLTRAINER-TEST", 1);
+
 		/* Metrics. */
 		SLMetrics trainMetrics = new SLMetrics(network.getOutputSizes());
 		SLMetrics.Track trackPrev = null;
 
 		/* Iterate epochs. */
-		boolean consoleHeader = false;
+		consoleHeader = false;
 		if (console != null) console.clear();
 		for (int epoch = 0; epoch < epochs; epoch++) {
 
@@ -127,27 +275,22 @@ public class SLTrainer extends TaskProgress {
 				/* Check cancelled. */
 				if (cancel()) break;
 
-				/* Read pattern and process it. */
-				Pattern pattern = sourceTrain.next();
-				List<double[]> patternInput = pattern.getInputValues();
-				List<double[]> patternOutput = pattern.getOutputValues();
-				network.forward(patternInput);
-				List<double[]> networkOutput = network.getOutputValues();
-				List<double[]> networkDeltas = new ArrayList<>();
-				for (int i = 0; i < networkOutput.size(); i++) {
-					double[] p_output = patternOutput.get(i);
-					double[] n_output = networkOutput.get(i);
-					double[] n_deltas = Vector.subtract(p_output, n_output);
-					networkDeltas.add(n_deltas);
+				/* Read the next pattern, batch of patterns or worker round and process it. */
+				int count;
+				if (workers > 1) {
+					count = trainRound(trainMetrics);
+				} else if (batchSize == 1) {
+					Pattern pattern = sourceTrain.next();
+					train(network, networkDeltas, pattern.getInputValues(), pattern.getOutputValues(), trainMetrics);
+					count = 1;
+				} else {
+					count = read(inputBatch, outputBatch);
+					trainBatch(network, inputBatch, outputBatch, count, trainMetrics);
 				}
-				network.backward(networkDeltas);
-
-				/* Calculate train metrics. */
-				trainMetrics.compute(patternOutput, networkOutput);
 
 				/* Notify. */
-				totalDone++;
-				patternDone++;
+				totalDone += count;
+				patternDone += count;
 
 				StringBuilder epochMsg = new StringBuilder();
 				epochMsg.append("Processing epoch ");
@@ -167,78 +310,414 @@ public class SLTrainer extends TaskProgress {
 				patternMsg.append(patternWork);
 				getMonitor().notifyMessage(LEVEL_PATTERN, patternMsg.toString());
 
-				getMonitor().notifyProgress(LEVEL_EPOCH, 1, totalWork);
-				getMonitor().notifyProgress(LEVEL_PATTERN, 1, patternWork);
+				getMonitor().notifyProgress(LEVEL_EPOCH, count, totalWork);
+				getMonitor().notifyProgress(LEVEL_PATTERN, count, patternWork);
 
 			}
 
 			/* Check cancelled. */
 			if (cancel()) break;
 
-			/* If there is a console, report performance. */
-			if (console != null) {
-
-				SLMetrics.Track track = trainMetrics.getTrack();
-				int matches = track.matches();
-				int calls = track.calls();
-				BigDecimal perf = Numbers.getBigDecimal(100 * track.performance(), 4);
-				BigDecimal errorAvg = Numbers.getBigDecimal(track.errorAvg(), 8);
-
-				String sep = "  ";
-				int padEpoch = Math.max(Integer.toString(epochs).length(), "Epoch".length());
-				int padMatches = Math.max(Integer.toString(calls).length(), "Matches".length());
-				int padCalls = Math.max(Integer.toString(calls).length(), "Calls".length());
-				int padPerf = Math.max(perf.toPlainString().length(), "Perform".length());
-				int padError = Math.max(errorAvg.toPlainString().length(), "Error-Avg".length());
-				int padPerfDif = Math.max(perf.toPlainString().length() + 1, "Perform-Dif".length());
-				int padErrorDif = Math.max(errorAvg.toPlainString().length() + 1, "Error-Dif".length());
-				if (!consoleHeader) {
-					consoleHeader = true;
-					console.print(Strings.leftPad("Epoch", padEpoch));
-					console.print(sep);
-					console.print(Strings.leftPad("Matches", padMatches));
-					console.print(sep);
-					console.print(Strings.leftPad("Calls", padCalls));
-					console.print(sep);
-					console.print(Strings.leftPad("Perform", padPerf));
-					console.print(sep);
-					console.print(Strings.leftPad("Error-Avg", padError));
-					console.print(sep);
-					console.print(Strings.leftPad("Perform-Dif", padPerfDif));
-					console.print(sep);
-					console.print(Strings.leftPad("Error-Dif", padErrorDif));
-					console.println();
-				}
-				console.print(Strings.leftPad(epoch + 1, padEpoch));
-				console.print(sep);
-				console.print(Strings.leftPad(matches, padMatches));
-				console.print(sep);
-				console.print(Strings.leftPad(calls, padCalls));
-				console.print(sep);
-				console.print(Strings.leftPad(perf.toPlainString(), padPerf));
-				console.print(sep);
-				console.print(Strings.leftPad(errorAvg.toPlainString(), padError));
-				if (trackPrev != null) {
-					BigDecimal perfPrev = Numbers.getBigDecimal(100 * trackPrev.performance(), 4);
-					BigDecimal perfDif = perf.subtract(perfPrev);
-					BigDecimal errorPrev = Numbers.getBigDecimal(trackPrev.errorAvg(), 8);
-					BigDecimal errorDif = errorAvg.subtract(errorPrev);
-					console.print(sep);
-					console.print(Strings.leftPad(perfDif.toPlainString(), padPerfDif));
-					console.print(sep);
-					console.print(Strings.leftPad(errorDif.toPlainString(), padErrorDif));
-				}
-				console.println();
-				
-				
-				trackPrev = track;
+			/* Report the epoch, or collect the evaluation of the previous epoch and start this one. */
+			SLMetrics.Track track = trainMetrics.getTrack();
+			boolean stop = false;
+			if (sourceTest == null) {
+				report(epoch, track, trackPrev, null);
+			} else {
+				if (evaluator != null) stop = collect(evaluator);
+				evaluator = evaluate(epoch, track, trackPrev);
 			}
+			trackPrev = track;
 
 			/* End monitor of pattern. */
 			getMonitor().notifyEnd(LEVEL_PATTERN);
+
+			/* Early stop. */
+			if (stop) break;
 		}
 
+		/* Collect the last evaluation, or discard it if cancelled. */
+		if (evaluator != null) {
+			if (wasCancelled()) {
+				evaluator.requestCancel();
+				testPool.waitForTermination(List.of(evaluator));
+			} else {
+				collect(evaluator);
+			}
+		}
+
+		/* Release the workers and the test pool. */
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+		if (testPool != null) {
+			testPool.shutdown();
+			testPool = null;
+		}
+
+		/* Restore the best epoch. */
+		if (restoreBest && bestNetwork != null && !wasCancelled()) {
+			network.copyParameters(bestNetwork);
+		}
+		bestNetwork = null;
+
 		/* End monitor of pattern. */
 		getMonitor().notifyEnd(LEVEL_EPOCH);
 	}
+
+	/**
+	 * Take a frozen snapshot of the network and submit its evaluation on the test source.
+	 * @param epoch     The epoch, zero based.
+	 * @param track     The train track of the epoch.
+	 * @param trackPrev The train track of the previous epoch, or null.
+	 * @return The evaluator.
+	 */
+	private Evaluator evaluate(int epoch, SLMetrics.Track track, SLMetrics.Track trackPrev) {
+		Network snapshot = network.copy();
+		snapshot.freeze();
+		Evaluator evaluator = new Evaluator(snapshot, epoch, track, trackPrev);
+		testPool.submit(evaluator);
+		return evaluator;
+	}
+	/**
+	 * Wait for the evaluation, report it, retain the best epoch and check the patience.
+	 * @param evaluator The evaluator.
+	 * @return A boolean that indicates whether training should stop.
+	 * @throws Throwable If the evaluation failed.
+	 */
+	private boolean collect(Evaluator evaluator) throws Throwable {
+		testPool.waitForTermination(List.of(evaluator));
+		Task.check(List.of(evaluator));
+		testTrack = evaluator.metrics.getTrack();
+		report(evaluator.epoch, evaluator.track, evaluator.trackPrev, testTrack);
+		if (bestTrack == null || testTrack.errorAvg() < bestTrack.errorAvg()) {
+			bestTrack = testTrack;
+			bestEpoch = evaluator.epoch;
+			staleEpochs = 0;
+			if (restoreBest) bestNetwork = evaluator.snapshot;
+			if (bestCheckpoint != null) evaluator.snapshot.saveCheckpoint(bestCheckpoint);
+			return false;
+		}
+		staleEpochs++;
+		return (patience > 0 && staleEpochs >= patience);
+	}
+
+	/**
+	 * Report an epoch to the console if there is one.
+	 * @param epoch     The epoch, zero based.
+	 * @param track     The train track.
+	 * @param trackPrev The train track of the previous epoch, or null.
+	 * @param testTrack The test track, or null.
+	 */
+	private void report(int epoch, SLMetrics.Track track, SLMetrics.Track trackPrev, SLMetrics.Track testTrack) {
+		if (console == null) return;
+
+		int matches = track.matches();
+		int calls = track.calls();
+		BigDecimal perf = Numbers.getBigDecimal(100 * track.performance(), 4);
+		BigDecimal errorAvg = Numbers.getBigDecimal(track.errorAvg(), 8);
+		BigDecimal testPerf = null;
+		BigDecimal testError = null;
+		if (testTrack != null) {
+			testPerf = Numbers.getBigDecimal(100 * testTrack.performance(), 4);
+			testError = Numbers.getBigDecimal(testTrack.errorAvg(), 8);
+		}
+
+		String sep = "  ";
+		int padEpoch = Math.max(Integer.toString(epochs).length(), "Epoch".length());
+		int padMatches = Math.max(Integer.toString(calls).length(), "Matches".length());
+		int padCalls = Math.max(Integer.toString(calls).length(), "Calls".length());
+		int padPerf = Math.max(perf.toPlainString().length(), "Perform".length());
+		int padError = Math.max(errorAvg.toPlainString().length(), "Error-Avg".length());
+		int padTestPerf = Math.max(testPerf == null ? 0 : testPerf.toPlainString().length(), "Test-Perform".length());
+		int padTestError = Math.max(testError == null ? 0 : testError.toPlainString().length(), "Test-Error".length());
+		int padPerfDif = Math.max(perf.toPlainString().length() + 1, "Perform-Dif".length());
+		int padErrorDif = Math.max(errorAvg.toPlainString().length() + 1, "Error-Dif".length());
+		if (!consoleHeader) {
+			consoleHeader = true;
+			console.print(Strings.leftPad("Epoch", padEpoch));
+			console.print(sep);
+			console.print(Strings.leftPad("Matches", padMatches));
+			console.print(sep);
+			console.print(Strings.leftPad("Calls", padCalls));
+			console.print(sep);
+			console.print(Strings.leftPad("Perform", padPerf));
+			console.print(sep);
+			console.print(Strings.leftPad("Error-Avg", padError));
+			if (testTrack != null) {
+				console.print(sep);
+				console.print(Strings.leftPad("Test-Perform", padTestPerf));
+				console.print(sep);
+				console.print(Strings.leftPad("Test-Error", padTestError));
+			}
+			console.print(sep);
+			console.print(Strings.leftPad("Perform-Dif", padPerfDif));
+			console.print(sep);
+			console.print(Strings.leftPad("Error-Dif", padErrorDif));
+			console.println();
+		}
+		console.print(Strings.leftPad(epoch + 1, padEpoch));
+		console.print(sep);
+		console.print(Strings.leftPad(matches, padMatches));
+		console.print(sep);
+		console.print(Strings.leftPad(calls, padCalls));
+		console.print(sep);
+		console.print(Strings.leftPad(perf.toPlainString(), padPerf));
+		console.print(sep);
+		console.print(Strings.leftPad(errorAvg.toPlainString(), padError));
+		if (testTrack != null) {
+			console.print(sep);
+			console.print(Strings.leftPad(testPerf.toPlainString(), padTestPerf));
+			console.print(sep);
+			console.print(Strings.leftPad(testError.toPlainString(), padTestError));
+		}
+		if (trackPrev != null) {
+			BigDecimal perfPrev = Numbers.getBigDecimal(100 * trackPrev.performance(), 4);
+			BigDecimal perfDif = perf.subtract(perfPrev);
+			BigDecimal errorPrev = Numbers.getBigDecimal(trackPrev.errorAvg(), 8);
+			BigDecimal errorDif = errorAvg.subtract(errorPrev);
+			console.print(sep);
+			console.print(Strings.leftPad(perfDif.toPlainString(), padPerfDif));
+			console.print(sep);
+			console.print(Strings.leftPad(errorDif.toPlainString(), padErrorDif));
+		}
+		console.println();
+	}
+
+	/**
+	 * Run a round of the workers, merge their metrics, average the replicas into the network and
+	 * copy the result back to the replicas. The replicas step their optimizers alike, so the
+	 * learning rate schedule of the first one is copied to the optimizer of the network.
+	 * @param metrics The metrics to compute.
+	 * @return The number of patterns trained.
+	 * @throws Throwable If any worker fails.
+	 */
+	private int trainRound(SLMetrics metrics) throws Throwable {
+		pool.execute(workerList);
+		Task.check(workerList);
+		int count = 0;
+		for (Worker worker : workerList) {
+			count += worker.count;
+			metrics.merge(worker.metrics);
+			worker.metrics.reset();
+		}
+		network.average(replicas);
+		network.getOptimizer().copySchedule(replicas.get(0).getOptimizer());
+		for (Network replica : replicas) {
+			replica.copyParameters(network);
+		}
+		return count;
+	}
+
+	/**
+	 * Read up to the size of the batches patterns from the train source, copying their values
+	 * to the rows of the batches. Access to the source is synchronized, so that workers can share
+	 * it.
+	 * @param inputs  The batch of input values.
+	 * @param outputs The batch of pattern output values.
+	 * @return The number of rows read.
+	 */
+	private int read(Batch inputs, Batch outputs) {
+		synchronized (sourceTrain) {
+			int rows = 0;
+			while (rows < inputs.size() && sourceTrain.hasNext()) {
+				Pattern pattern = sourceTrain.next();
+				inputs.setRow(rows, pattern.getInputValues());
+				outputs.setRow(rows, pattern.getOutputValues());
+				rows++;
+			}
+			return rows;
+		}
+	}
+
+	/**
+	 * Return a list of output delta vectors for the network.
+	 * @param network The network.
+	 * @return The list of output deltas.
+	 */
+	private static List<double[]> getDeltas(Network network) {
+		List<double[]> deltas = new ArrayList<>();
+		for (int size : network.getOutputSizes()) {
+			deltas.add(new double[size]);
+		}
+		return deltas;
+	}
+
+	/**
+	 * Train a single pattern.
+	 * @param network       The network to train.
+	 * @param networkDeltas The reusable list of output deltas.
+	 * @param patternInput  The pattern input values.
+	 * @param patternOutput The pattern output values.
+	 * @param metrics       The metrics to compute.
+	 */
+	private static void train(
+			Network network,
+			List<double[]> networkDeltas,
+			List<double[]> patternInput,
+			List<double[]> patternOutput,
+			SLMetrics metrics) {
+		network.forward(patternInput);
+		List<double[]> networkOutput = network.getOutputValues();
+		for (int i = 0; i < networkOutput.size(); i++) {
+			double[] p_output = patternOutput.get(i);
+			double[] n_output = networkOutput.get(i);
+			double[] n_deltas = networkDeltas.get(i);
+			for (int j = 0; j < n_deltas.length; j++) {
+				n_deltas[j] = p_output[j] - n_output[j];
+			}
+		}
+		network.backward(networkDeltas);
+
+		/* Calculate train metrics. */
+		metrics.compute(patternOutput, networkOutput);
+	}
+
+	/**
+	 * Train the first rows of the batches as a batch.
+	 * @param network The network to train.
+	 * @param inputs  The batch of input values.
+	 * @param outputs The batch of pattern output values.
+	 * @param rows    The number of rows to train.
+	 * @param metrics The metrics to compute.
+	 */
+	private static void trainBatch(Network network, Batch inputs, Batch outputs, int rows, SLMetrics metrics) {
+		if (rows == 0) return;
+		if (rows < inputs.size()) {
+			inputs = head(inputs, rows);
+			outputs = head(outputs, rows);
+		}
+
+		/* Forward the input batch. */
+		network.forward(inputs);
+
+		/* Calculate deltas and metrics, and backward. */
+		Batch networkBatch = network.getOutputBatch();
+		Batch deltasBatch = new Batch(rows, network.getOutputSizes());
+		for (int r = 0; r < rows; r++) {
+			List<double[]> patternOutput = outputs.getRow(r);
+			List<double[]> networkOutput = networkBatch.getRow(r);
+			List<double[]> networkDeltas = deltasBatch.getRow(r);
+			for (int i = 0; i < networkOutput.size(); i++) {
+				double[] p_output = patternOutput.get(i);
+				double[] n_output = networkOutput.get(i);
+				double[] n_deltas = networkDeltas.get(i);
+				for (int j = 0; j < n_deltas.length; j++) {
+					n_deltas[j] = p_output[j] - n_output[j];
+				}
+			}
+			metrics.compute(patternOutput, networkOutput);
+		}
+		network.backward(deltasBatch);
+	}
+
+	/**
+	 * Return a batch with the first rows of the argument batch.
+	 * @param batch The batch.
+	 * @param rows  The number of rows.
+	 * @return The batch with the first rows.
+	 */
+	private static Batch head(Batch batch, int rows) {
+		List<double[][]> blocks = new ArrayList<>();
+		for (double[][] block : batch.getBlocks()) {
+			blocks.add(Arrays.copyOf(block, rows));
+		}
+		return new Batch(blocks);
+	}
+
+	/**
+	 * Worker that trains a replica of the network on patterns pulled from the shared train source.
+	 */
+	private class Worker extends Task {
+
+		/** The replica of the network. */
+		private final Network replica;
+		/** Reusable list of output deltas. */
+		private final List<double[]> deltas;
+		/** Reusable batch of input values. */
+		private final Batch inputs;
+		/** Reusable batch of pattern output values. */
+		private final Batch outputs;
+		/** Metrics of the worker, merged after each round. */
+		private final SLMetrics metrics;
+		/** Number of patterns trained in the last round. */
+		private int count;
+
+		/**
+		 * Constructor.
+		 * @param replica The replica of the network.
+		 */
+		private Worker(Network replica) {
+			this.replica = replica;
+			this.deltas = getDeltas(replica);
+			this.inputs = new Batch(batchSize, replica.getInputSizes());
+			this.outputs = new Batch(batchSize, replica.getOutputSizes());
+			this.metrics = new SLMetrics(replica.getOutputSizes());
+		}
+
+		/**
+		 * Train up to <i>syncPatterns</i> patterns.
+		 */
+		@Override
+		public void execute() throws Throwable {
+			count = 0;
+			while (count < syncPatterns) {
+				int rows = read(inputs, outputs);
+				if (rows == 0) break;
+				if (batchSize == 1) {
+					train(replica, deltas, inputs.getRow(0), outputs.getRow(0), metrics);
+				} else {
+					trainBatch(replica, inputs, outputs, rows, metrics);
+				}
+				count += rows;
+			}
+		}
+	}
+
+	/**
+	 * Evaluator that scores a frozen snapshot of the network on the test source.
+	 */
+	private class Evaluator extends Task {
+
+		/** The frozen snapshot. */
+		private final Network snapshot;
+		/** The epoch, zero based. */
+		private final int epoch;
+		/** The train track of the epoch. */
+		private final SLMetrics.Track track;
+		/** The train track of the previous epoch, or null. */
+		private final SLMetrics.Track trackPrev;
+		/** The test metrics. */
+		private final SLMetrics metrics;
+
+		/**
+		 * Constructor.
+		 * @param snapshot  The frozen snapshot.
+		 * @param epoch     The epoch.
+		 * @param track     The train track of the epoch.
+		 * @param trackPrev The train track of the previous epoch, or null.
+		 */
+		private Evaluator(Network snapshot, int epoch, SLMetrics.Track track, SLMetrics.Track trackPrev) {
+			this.snapshot = snapshot;
+			this.epoch = epoch;
+			this.track = track;
+			this.trackPrev = trackPrev;
+			this.metrics = new SLMetrics(snapshot.getOutputSizes());
+		}
+
+		/**
+		 * Score all the patterns of the test source.
+		 */
+		@Override
+		public void execute() throws Throwable {
+			InferenceContext context = snapshot.createContext();
+			sourceTest.reset();
+			while (sourceTest.hasNext()) {
+				if (cancel()) return;
+				Pattern pattern = sourceTest.next();
+				metrics.compute(pattern.getOutputValues(), snapshot.predict(pattern.getInputValues(), context));
+			}
+		}
+	}
 }
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2022 Miquel Sas.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.msfx.lib.ml.training;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.msfx.lib.ml.graph.Network;
+
+/**
+ * Sequence trainer with truncated back-propagation through time.
+ * <p>
+ * A sequence is processed in chunks of <i>window</i> steps. Each chunk is forwarded step by step,
+ * pushing the values of every step onto the edges, and then backwarded from the last step to the
+ * first, the recurrent edges carrying the deltas from each step to the previous one. The recurrent
+ * state at the end of the chunk is then carried to the next chunk, while the deltas are not, thus
+ * the gradients are truncated to the window. The gradients of all the steps of a chunk are
+ * accumulated and applied in a single update pass after the chunk, so that every step is
+ * back-propagated through the weights that produced its forward values. The edges use rings of
+ * depth <i>window + 1</i>, so that sequences of any length train in constant memory.
+ *
+ * @author Miquel Sas
+ */
+public class SequenceTrainer {
+
+	/** The network. */
+	private final Network network;
+	/** Truncation window, number of steps back-propagated. */
+	private final int window;
+	/** Reusable output deltas by step of the window. */
+	private final List<List<double[]>> deltas;
+
+	/**
+	 * Constructor. Configures the queue depth of the network and initializes it.
+	 *
+	 * @param network The network, with all the cells added.
+	 * @param window  The truncation window.
+	 */
+	public SequenceTrainer(Network network, int window) {
+		if (window < 1) throw new IllegalArgumentException("Invalid window " + window);
+		this.network = network;
+		this.window = window;
+		network.setQueueDepth(window + 1);
+		network.initialize();
+		deltas = new ArrayList<>(window);
+		for (int i = 0; i < window; i++) {
+			List<double[]> stepDeltas = new ArrayList<>();
+			for (int size : network.getOutputSizes()) {
+				stepDeltas.add(new double[size]);
+			}
+			deltas.add(stepDeltas);
+		}
+	}
+
+	/**
+	 * Return the network.
+	 *
+	 * @return The network.
+	 */
+	public Network getNetwork() { return network; }
+	/**
+	 * Return the truncation window.
+	 *
+	 * @return The window.
+	 */
+	public int getWindow() { return window; }
+
+	/**
+	 * Train a sequence, starting from a clear state.
+	 *
+	 * @param inputs  The list of steps, each one with the list of input values.
+	 * @param targets The list of steps, each one with the list of target output values.
+	 * @param metrics Optional metrics to compute, can be null.
+	 */
+	public void train(List<List<double[]>> inputs, List<List<double[]>> targets, SLMetrics metrics) {
+		if (inputs.size() != targets.size()) {
+			throw new IllegalArgumentException("Inputs and targets sizes do not match");
+		}
+		network.clear();
+		int start = 0;
+		while (start < inputs.size()) {
+			int steps = Math.min(window, inputs.size() - start);
+
+			/* Forward the steps of the chunk, calculating deltas and metrics. */
+			for (int k = 0; k < steps; k++) {
+				List<double[]> target = targets.get(start + k);
+				network.forward(inputs.get(start + k));
+				List<double[]> output = network.getOutputValues();
+				List<double[]> stepDeltas = deltas.get(k);
+				for (int i = 0; i < output.size(); i++) {
+					double[] p_output = target.get(i);
+					double[] n_output = output.get(i);
+					double[] n_deltas = stepDeltas.get(i);
+					for (int j = 0; j < n_deltas.length; j++) {
+						n_deltas[j] = p_output[j] - n_output[j];
+					}
+				}
+				if (metrics != null) metrics.compute(target, output);
+			}
+
+			/* Backward the steps in reverse order, keeping the state at the end of the chunk. */
+			List<double[]> state = network.getRecurrentState();
+			int accumulationSteps = network.getAccumulationSteps();
+			network.setAccumulationSteps(Integer.MAX_VALUE);
+			try {
+				for (int k = steps - 1; k >= 0; k--) {
+					network.backward(deltas.get(k));
+				}
+			} finally {
+				network.setAccumulationSteps(accumulationSteps);
+			}
+			network.update();
+			network.clear();
+			network.setRecurrentState(state);
+
+			start += steps;
+		}
+		network.clear();
+	}
+
+	/**
+	 * Forward a sequence, starting from a clear state, and return the output values of every step.
+	 *
+	 * @param inputs The list of steps, each one with the list of input values.
+	 * @return The list of steps, each one with a copy of the list of output values.
+	 */
+	public List<List<double[]>> forward(List<List<double[]>> inputs) {
+		List<List<double[]>> outputs = new ArrayList<>(inputs.size());
+		network.clear();
+		for (List<double[]> stepInputs : inputs) {
+			network.forward(stepInputs);
+			List<double[]> stepOutputs = new ArrayList<>();
+			for (double[] values : network.getOutputValues()) {
+				stepOutputs.add(values.clone());
+			}
+			outputs.add(stepOutputs);
+			List<double[]> state = network.getRecurrentState();
+			network.clear();
+			network.setRecurrentState(state);
+		}
+		network.clear();
+		return outputs;
+	}
+}
@@ -138,6 +138,12 @@ public class ExecPool {
 		for (Task task : tasks) { pool.submit((Runnable) task); }
 	}
 
+	/**
+	 * Return the underlying fork join pool, to share it with other executors.
+	 * @return The fork join pool.
+	 */
+	public ForkJoinPool getPool() { return pool; }
+
 	/**
 	 * Request the pool to shut down.
 	 */
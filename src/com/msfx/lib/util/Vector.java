@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
 
 /**
@@ -455,6 +456,21 @@ public class Vector {
 		}
 	}
 
+	/**
+	 * Shuffle the list with a uniform Fisher-Yates permutation driven by the given random, so that
+	 * the result is reproducible with a seeded random.
+	 * @param list   The list to shuffle.
+	 * @param random The random generator.
+	 */
+	public static void shuffle(int[] list, Random random) {
+		for (int i = list.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int value = list[i];
+			list[i] = list[j];
+			list[j] = value;
+		}
+	}
+
 	/**
 	 * Returns the cosine similarity between two vectors.
 	 * @param x Vector x.